@@ -312,8 +312,8 @@ namespace Plugins.CountlySDK
             Consents = new ConsentCountlyService(Configuration, _logHelper, Consents, RequestHelper);
             Events = new EventCountlyService(Configuration, _logHelper, RequestHelper, nonViewEventRepo, Consents, countlyUtils);
             Location = new Services.LocationService(Configuration, _logHelper, RequestHelper, Consents);
-            Notifications = new NotificationsCallbackService(Configuration, _logHelper);
-            ProxyNotificationsService notificationsService = new ProxyNotificationsService(transform, Configuration, _logHelper, InternalStartCoroutine, Events);
+            ProxyNotificationsService notificationsService = new ProxyNotificationsService(transform, Configuration, _logHelper, InternalStartCoroutine, Events, () => Device?.DeviceId);
+            Notifications = new NotificationsCallbackService(Configuration, _logHelper, notificationsService);
             _push = new PushCountlyService(Configuration, _logHelper, RequestHelper, notificationsService, Notifications, Consents);
             Session = new SessionCountlyService(Configuration, _logHelper, Events, RequestHelper, Location, Consents, this);
             CrashReports = new CrashReportsCountlyService(Configuration, _logHelper, RequestHelper, Consents);
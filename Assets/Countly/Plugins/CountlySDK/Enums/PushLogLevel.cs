@@ -0,0 +1,14 @@
+﻿namespace Plugins.CountlySDK.Enums
+{
+    /// <summary>
+    /// Levels of the native push plugin log, ordered by severity.
+    /// </summary>
+    public enum PushLogLevel
+    {
+        Verbose,
+        Debug,
+        Info,
+        Warning,
+        Error
+    }
+}
@@ -109,6 +109,7 @@ namespace Plugins.CountlySDK.Helpers
                 }
 
                 _requestRepo.Dequeue();
+                NotifyDelivered(reqModel);
             }
 
             _isQueueBeingProcess = false;
@@ -137,12 +138,30 @@ namespace Plugins.CountlySDK.Helpers
 #endif
         }
 
+        private void NotifyDelivered(CountlyRequestModel reqModel)
+        {
+            if (reqModel.OnDelivered == null) {
+                return;
+            }
+
+            try {
+                reqModel.OnDelivered();
+            } catch (Exception ex) {
+                Log.Warning($"[RequestCountlyHelper] NotifyDelivered, delivery callback failed. Exception: [{ex}]");
+            }
+            reqModel.OnDelivered = null;
+        }
+
         /// <summary>
         /// An internal function to add a request to request queue.
         /// </summary>
-        internal void AddToRequestQueue(Dictionary<string, object> queryParams)
+        /// <param name="queryParams"></param>
+        /// <param name="onDelivered">called once the server accepted the request, whichever queue run sends it; never
+        /// called if the request is dropped or the queue is reloaded from storage before that</param>
+        internal void AddToRequestQueue(Dictionary<string, object> queryParams, Action onDelivered = null)
         {
             CountlyRequestModel requestModel = _requestBuilder.BuildRequest(_countlyUtils.GetBaseParams(), queryParams);
+            requestModel.OnDelivered = onDelivered;
 
             AddRequestToQueue(requestModel);
         }
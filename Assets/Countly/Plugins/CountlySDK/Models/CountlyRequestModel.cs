@@ -16,6 +16,10 @@ namespace Plugins.CountlySDK.Models
         public string RequestData { get; set; }
         public long Id { get; set; }
 
+        // Called once the server accepted this instance, not persisted: a request reloaded from storage, dropped from
+        // a full queue or cleared never calls it
+        internal Action OnDelivered { get; set; }
+
         public override string ToString()
         {
             return $"{nameof(RequestUrl)}: {RequestUrl}, {nameof(RequestData)}: {RequestData}, {nameof(Id)}: {Id}";
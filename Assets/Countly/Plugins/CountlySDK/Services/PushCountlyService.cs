@@ -61,7 +61,7 @@ namespace Plugins.CountlySDK.Services
                  * When the push notification service gets enabled successfully for the device, 
                  * we send a request to the Countly server that the user is ready to receive push notifications.
                */
-                await PostToCountlyAsync(_mode, _token);
+                await PostToCountlyAsync(_mode, _token, () => _notificationsService.ConfirmToken(result));
                 await ReportPushActionAsync();
             });
 
@@ -74,13 +74,16 @@ namespace Plugins.CountlySDK.Services
                 _notificationsCallbackService.NotifyOnNotificationReceived(data);
             });
 
+            // Unchanged token isn't delivered again, so stored actions are reported without waiting for it
+            _ = ReportPushActionAsync();
         }
 
         /// <summary>
         /// Notifies Countly that the device is capable of receiving Push Notifications
         /// </summary>
+        /// <param name="onDelivered">called once the server accepted the token</param>
         /// <returns></returns>
-        private async Task PostToCountlyAsync(TestMode? mode, string token)
+        private async Task PostToCountlyAsync(TestMode? mode, string token, Action onDelivered)
         {
             Log.Debug("[PushCountlyService] PostToCountlyAsync : token = " + token);
 
@@ -96,7 +99,7 @@ namespace Plugins.CountlySDK.Services
                     { $"{_configuration.metricHelper.OS}_token", token },
                 };
 
-            _requestCountlyHelper.AddToRequestQueue(requestParams);
+            _requestCountlyHelper.AddToRequestQueue(requestParams, onDelivered);
             await _requestCountlyHelper.ProcessQueue();
         }
 
@@ -125,6 +128,10 @@ namespace Plugins.CountlySDK.Services
             if (updatedConsents.Contains(Consents.Push) && newConsentValue && !_isDeviceRegistered) {
                 EnableNotification();
             }
+
+            if (updatedConsents.Contains(Consents.Push) && !newConsentValue) {
+                _notificationsService.StopPushActionForwarding();
+            }
         }
         #endregion
     }
@@ -1,3 +1,4 @@
+using Plugins.CountlySDK.Enums;
 using Plugins.CountlySDK.Helpers;
 using System;
 using System.Threading.Tasks;
@@ -8,8 +9,14 @@ namespace Notifications
     {
         bool IsInitializedWithoutError { get; set; }
         void GetToken(Action<string> result);
+        void ConfirmToken(string token);
         void OnNotificationClicked(Action<string, int> result);
         void OnNotificationReceived(Action<string> result);
         Task<CountlyResponse> ReportPushActionAsync();
+        void StopPushActionForwarding();
+        string GetPushMetrics();
+        string DumpPushLog();
+        void SetPushLogLevel(PushLogLevel level);
+        void SetPushLogBufferLevel(PushLogLevel level);
     }
 }
\ No newline at end of file
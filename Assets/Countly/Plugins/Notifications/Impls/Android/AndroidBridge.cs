@@ -1,3 +1,4 @@
+using Newtonsoft.Json;
 using Newtonsoft.Json.Linq;
 using Plugins.CountlySDK.Models;
 using System;
@@ -7,10 +8,16 @@ namespace Notifications.Impls.Android
 {
     public class AndroidBridge : MonoBehaviour
     {
+        private const string UnityBridgePackageName = "ly.count.unity.push_fcm.UnityBridge";
         private Action<string> _onTokenResult;
         private Action<string> _OnNotificationReceiveResult;
         private Action<string, int> _OnNotificationClickResult;
 
+        /// <summary>
+        /// Set once the native side delivers events to this object in batches, see <see cref="OnBridgeEvents"/>.
+        /// </summary>
+        internal bool IsAttached { get; set; }
+
         public CountlyLogHelper Log { get; set; }
 
         public void ListenTokenResult(Action<string> result) => _onTokenResult = result;
@@ -23,6 +30,48 @@ namespace Notifications.Impls.Android
             DontDestroyOnLoad(gameObject);
         }
 
+        private void OnDestroy()
+        {
+#if !UNITY_EDITOR
+            if (!IsAttached) {
+                return;
+            }
+
+            using (AndroidJavaClass unityBridge = new AndroidJavaClass(UnityBridgePackageName)) {
+                unityBridge.CallStatic("detach");
+            }
+#endif
+        }
+
+        /// <summary>
+        /// Receives events batched on the native side, one call per flush instead of one per event.
+        /// </summary>
+        public void OnBridgeEvents(string batch)
+        {
+            JArray events = JArray.Parse(batch);
+            Log.Debug("[AndroidBridge] OnBridgeEvents, count: " + events.Count);
+
+            foreach (JObject item in events) {
+                string type = (string)item.GetValue("e");
+                JToken data = item.GetValue("d");
+
+                switch (type) {
+                    case "token":
+                        OnTokenResult((string)data);
+                        break;
+                    case "received":
+                        OnNotificationReceived(data.ToString(Formatting.None));
+                        break;
+                    case "clicked":
+                        OnNotificationClicked(data.ToString(Formatting.None));
+                        break;
+                    default:
+                        Log.Warning("[AndroidBridge] Unknown bridge event: " + type);
+                        break;
+                }
+            }
+        }
+
         public void OnTokenResult(string token)
         {
             _onTokenResult?.Invoke(token);
@@ -1,4 +1,6 @@
 using Newtonsoft.Json.Linq;
+using Plugins.CountlySDK;
+using Plugins.CountlySDK.Enums;
 using Plugins.CountlySDK.Helpers;
 using Plugins.CountlySDK.Models;
 using Plugins.CountlySDK.Services;
@@ -17,14 +19,25 @@ namespace Notifications.Impls.Android
         private const string StorePackageName = "ly.count.unity.push_fcm.MessageStore";
         private const string CountlyPushPluginPackageName = "ly.count.unity.push_fcm.CountlyPushPlugin";
         private const string NotficationServicePackageName = "ly.count.unity.push_fcm.RemoteNotificationsService";
+        private const string UnityBridgePackageName = "ly.count.unity.push_fcm.UnityBridge";
+        private const string PushMetricsPackageName = "ly.count.unity.push_fcm.PushMetrics";
+        private const string ActionForwarderPackageName = "ly.count.unity.push_fcm.ActionForwarder";
+        private const string TokenManagerPackageName = "ly.count.unity.push_fcm.TokenManager";
+        private const int PushActionBatchSize = 50;
 
         private readonly CountlyLogHelper Log;
         private readonly AndroidBridge _bridge;
         private readonly EventCountlyService _eventCountlyService;
+        private readonly CountlyConfiguration _config;
+        private readonly Func<string> _deviceIdProvider;
+        private bool _isReportingPushActions;
+        // Whether the native plugin has the bridge, token, batch store and forwarder APIs, which older countly_notifications.jar builds lack
+        private readonly bool _hasNativeApi;
 
         public bool IsInitializedWithoutError { get; set; }
 
-        internal AndroidNotificationsService(Transform countlyGameObject, CountlyConfiguration config, CountlyLogHelper log, EventCountlyService eventCountlyService)
+        /// <param name="deviceIdProvider">current device id of the SDK, read whenever the native side needs it as it may change</param>
+        internal AndroidNotificationsService(Transform countlyGameObject, CountlyConfiguration config, CountlyLogHelper log, EventCountlyService eventCountlyService, Func<string> deviceIdProvider)
         {
             Log = log;
 
@@ -32,6 +45,8 @@ namespace Notifications.Impls.Android
 
             _countlyGameObject = countlyGameObject;
             _eventCountlyService = eventCountlyService;
+            _config = config;
+            _deviceIdProvider = deviceIdProvider;
 
             GameObject gameObject = new GameObject(BridgeName);
             gameObject.transform.parent = _countlyGameObject;
@@ -41,6 +56,16 @@ namespace Notifications.Impls.Android
             try {
                 AndroidJavaClass countlyPushPlugin = new AndroidJavaClass(CountlyPushPluginPackageName);
                 countlyPushPlugin.CallStatic("setEnableLog", config.EnableConsoleLogging);
+
+                _hasNativeApi = HasNativeClass(TokenManagerPackageName);
+                if (_hasNativeApi) {
+                    // Native side buffers push events until the bridge object exists
+                    AndroidJavaClass unityBridge = new AndroidJavaClass(UnityBridgePackageName);
+                    unityBridge.CallStatic("attach");
+                    _bridge.IsAttached = true;
+                } else {
+                    Log.Warning("[AndroidNotificationsService] Native push plugin predates the batched bridge, using its legacy calls");
+                }
                 IsInitializedWithoutError = true;
             } catch (Exception ex) {
                 Log.Error("[AndroidNotificationsService] Exception in initializing service: " + ex.Message);
@@ -56,8 +81,34 @@ namespace Notifications.Impls.Android
 #if !UNITY_EDITOR
             _bridge.ListenTokenResult(result);
 
-            using (AndroidJavaObject jc = new AndroidJavaObject(NotficationServicePackageName)) {
-                jc.Call("getToken");
+            if (!_hasNativeApi) {
+                using (AndroidJavaObject jc = new AndroidJavaObject(NotficationServicePackageName)) {
+                    jc.Call("getToken");
+                }
+                return;
+            }
+
+            // Native side delivers the token only when it differs from the one confirmed for this device id and mode
+            using (AndroidJavaClass tokenManager = new AndroidJavaClass(TokenManagerPackageName)) {
+                tokenManager.CallStatic("requestToken", GetApplicationContext(), _deviceIdProvider(), (int)_config.NotificationMode);
+            }
+#endif
+        }
+
+        /// <summary>
+        /// Called once the server accepted the token, so it isn't delivered again for this device id and mode.
+        /// </summary>
+        public void ConfirmToken(string token)
+        {
+            Log.Debug("[AndroidNotificationsService] ConfirmToken");
+
+#if !UNITY_EDITOR
+            if (!_hasNativeApi) {
+                return;
+            }
+
+            using (AndroidJavaClass tokenManager = new AndroidJavaClass(TokenManagerPackageName)) {
+                tokenManager.CallStatic("confirmToken", GetApplicationContext(), token, _deviceIdProvider(), (int)_config.NotificationMode);
             }
 #endif
         }
@@ -76,21 +127,234 @@ namespace Notifications.Impls.Android
             _bridge.ListenReceiveResult(result);
         }
 
+        /// <summary>
+        /// Snapshot of native push path counters and latency histograms as a JSON string.
+        /// </summary>
+        public string GetPushMetrics()
+        {
+            Log.Debug("[AndroidNotificationsService] GetPushMetrics");
+
+#if !UNITY_EDITOR
+            if (!_hasNativeApi) {
+                return null;
+            }
+
+            using (AndroidJavaClass metrics = new AndroidJavaClass(PushMetricsPackageName)) {
+                return metrics.CallStatic<string>("snapshot");
+            }
+#else
+            return null;
+#endif
+        }
+
+        /// <summary>
+        /// Latest native push log lines kept in memory, available even when console logging is disabled.
+        /// </summary>
+        public string DumpPushLog()
+        {
+            Log.Debug("[AndroidNotificationsService] DumpPushLog");
+
+#if !UNITY_EDITOR
+            if (!_hasNativeApi) {
+                return null;
+            }
+
+            using (AndroidJavaClass countlyPushPlugin = new AndroidJavaClass(CountlyPushPluginPackageName)) {
+                return countlyPushPlugin.CallStatic<string>("dumpLog");
+            }
+#else
+            return null;
+#endif
+        }
+
+        /// <summary>
+        /// Minimum level of native push log lines written to logcat while console logging is enabled.
+        /// </summary>
+        public void SetPushLogLevel(PushLogLevel level)
+        {
+            Log.Debug("[AndroidNotificationsService] SetPushLogLevel: " + level);
+
+            CallPushPluginStatic("setLogLevel", level);
+        }
+
+        /// <summary>
+        /// Minimum level of native push log lines kept for <see cref="DumpPushLog"/>.
+        /// </summary>
+        public void SetPushLogBufferLevel(PushLogLevel level)
+        {
+            Log.Debug("[AndroidNotificationsService] SetPushLogBufferLevel: " + level);
+
+            CallPushPluginStatic("setLogBufferLevel", level);
+        }
+
+        private void CallPushPluginStatic(string method, PushLogLevel level)
+        {
+#if !UNITY_EDITOR
+            if (!_hasNativeApi) {
+                return;
+            }
+
+            using (AndroidJavaClass countlyPushPlugin = new AndroidJavaClass(CountlyPushPluginPackageName)) {
+                // Native levels are the upper case names of the same values
+                countlyPushPlugin.CallStatic(method, level.ToString().ToUpperInvariant());
+            }
+#endif
+        }
+
+        public void StopPushActionForwarding()
+        {
+            Log.Debug("[AndroidNotificationsService] StopPushActionForwarding");
+
+            if (!_hasNativeApi) {
+                return;
+            }
+
+            try {
+                using (AndroidJavaClass forwarder = new AndroidJavaClass(ActionForwarderPackageName)) {
+                    forwarder.CallStatic("disable", GetApplicationContext());
+                }
+            } catch (Exception ex) {
+                Log.Warning("[AndroidNotificationsService] StopPushActionForwarding failed: " + ex.Message);
+            }
+        }
+
+        /// <summary>
+        /// Hands stored push actions over to the native forwarder, which sends them to the server itself
+        /// and keeps retrying even when the game isn't running.
+        /// </summary>
+        /// <returns>false if the forwarder couldn't be configured and actions have to be reported from here</returns>
+        private bool ForwardPushActionsNatively()
+        {
+            string deviceId = _deviceIdProvider();
+            if (string.IsNullOrEmpty(deviceId)) {
+                return false;
+            }
+
+            try {
+                using (AndroidJavaClass forwarder = new AndroidJavaClass(ActionForwarderPackageName)) {
+                    forwarder.CallStatic("configure", GetApplicationContext(), _config.GetServerUrl(), _config.GetAppKey(), deviceId,
+                        _config.GetParameterTamperingProtectionSalt(), Constants.SdkName, Constants.SdkVersion);
+                }
+                return true;
+            } catch (Exception ex) {
+                Log.Warning("[AndroidNotificationsService] Native push action forwarding unavailable: " + ex.Message);
+                return false;
+            }
+        }
+
+        private static bool HasNativeClass(string name)
+        {
+            try {
+                using (new AndroidJavaClass(name)) {
+                    return true;
+                }
+            } catch (Exception) {
+                return false;
+            }
+        }
+
+        private AndroidJavaObject GetApplicationContext()
+        {
+            AndroidJavaClass unityPlayer = new AndroidJavaClass("com.unity3d.player.UnityPlayer");
+            AndroidJavaObject activity = unityPlayer.GetStatic<AndroidJavaObject>("currentActivity");
+            return activity.Call<AndroidJavaObject>("getApplicationContext");
+        }
+
         public async Task<CountlyResponse> ReportPushActionAsync()
         {
             Log.Debug("[AndroidNotificationsService] ReportPushActionAsync");
 
+            if (_hasNativeApi && ForwardPushActionsNatively()) {
+                return new CountlyResponse {
+                    IsSuccess = true,
+                };
+            }
+
             AndroidJavaClass store = new AndroidJavaClass(StorePackageName);
 
             bool isInitialized = store.CallStatic<bool>("isInitialized");
             if (!isInitialized) {
-                AndroidJavaClass unityPlayer = new AndroidJavaClass("com.unity3d.player.UnityPlayer");
-                AndroidJavaObject activity = unityPlayer.GetStatic<AndroidJavaObject>("currentActivity");
-                AndroidJavaObject applicationContext = activity.Call<AndroidJavaObject>("getApplicationContext");
+                store.CallStatic("init", GetApplicationContext());
+            }
+
+            if (!_hasNativeApi) {
+                return await ReportLegacyPushActionsAsync(store);
+            }
+
+            if (_isReportingPushActions) {
+                // A running drain keeps reading until the store is empty, so it also picks up actions stored meanwhile
+                return new CountlyResponse {
+                    IsSuccess = true,
+                };
+            }
+
+            _isReportingPushActions = true;
+            try {
+                long cursor = 0;
+                while (true) {
+                    string data = store.CallStatic<string>("readBatch", cursor, PushActionBatchSize);
+                    if (string.IsNullOrEmpty(data)) {
+                        return new CountlyResponse {
+                            IsSuccess = false,
+                            ErrorMessage = "Failed to read stored push actions."
+                        };
+                    }
+
+                    JObject batch = JObject.Parse(data);
+                    JArray jArray = (JArray)batch.GetValue("messages");
+                    long nextCursor = (long)batch.GetValue("cursor");
+
+                    if (jArray == null || jArray.Count == 0) {
+                        break;
+                    }
 
-                store.CallStatic("init", applicationContext);
+                    foreach (JObject item in jArray) {
+                        string mesageId = item.GetValue("messageId").ToString();
+                        string identifier = item.GetValue("action_index").ToString();
+                        Dictionary<string, object> segment = new Dictionary<string, object>()
+                        {
+                            {"b", mesageId},
+                            {"i", identifier},
+                            {"p", "a"}
+                        };
+
+                        Log.Debug("[AndroidNotificationsService] ReportPushActionAsync key: " + CountlyEventModel.PushActionEvent + ", segments: " + segment);
+
+
+                        CountlyEventModel eventModel = new CountlyEventModel(CountlyEventModel.PushActionEvent, segment);
+                        // Click time and time from showing the notification to the click, missing for actions stored by older versions
+                        JToken timestamp = item.GetValue("timestamp");
+                        if (timestamp != null) {
+                            DateTime clickedAt = DateTimeOffset.FromUnixTimeMilliseconds((long)timestamp).LocalDateTime;
+                            eventModel.Timestamp = (long)timestamp;
+                            eventModel.Hour = clickedAt.TimeOfDay.Hours;
+                            eventModel.DayOfWeek = (int)clickedAt.DayOfWeek;
+                        }
+                        JToken dwell = item.GetValue("dwell_ms");
+                        if (dwell != null) {
+                            eventModel.Duration = (long)dwell / 1000.0;
+                        }
+                        await _eventCountlyService.RecordEventAsync(eventModel);
+                    }
+
+                    // Actions are removed only after they are recorded, anything stored after this batch was read is kept
+                    store.CallStatic<bool>("ack", nextCursor);
+                    cursor = nextCursor;
+                }
+            } finally {
+                _isReportingPushActions = false;
             }
 
+            return new CountlyResponse {
+                IsSuccess = true,
+            };
+        }
+
+        /// <summary>
+        /// Reports push actions through the whole-store calls of native plugins without <c>readBatch</c>.
+        /// </summary>
+        private async Task<CountlyResponse> ReportLegacyPushActionsAsync(AndroidJavaClass store)
+        {
             string data = store.CallStatic<string>("getMessagesData");
             if (string.IsNullOrEmpty(data)) {
                 return new CountlyResponse {
@@ -103,24 +367,20 @@ namespace Notifications.Impls.Android
 
             if (jArray != null) {
                 foreach (JObject item in jArray) {
-                    string mesageId = item.GetValue("messageId").ToString();
-                    string identifier = item.GetValue("action_index").ToString();
                     Dictionary<string, object> segment = new Dictionary<string, object>()
                     {
-                        {"b", mesageId},
-                        {"i", identifier},
+                        {"b", item.GetValue("messageId").ToString()},
+                        {"i", item.GetValue("action_index").ToString()},
                         {"p", "a"}
                     };
 
-                    Log.Debug("[AndroidNotificationsService] ReportPushActionAsync key: " + CountlyEventModel.PushActionEvent + ", segments: " + segment);
-
+                    Log.Debug("[AndroidNotificationsService] ReportLegacyPushActionsAsync key: " + CountlyEventModel.PushActionEvent + ", segments: " + segment);
 
                     CountlyEventModel eventModel = new CountlyEventModel(CountlyEventModel.PushActionEvent, segment);
                     await _eventCountlyService.RecordEventAsync(eventModel);
                 }
 
                 store.CallStatic("clearMessagesData");
-
             }
 
             return new CountlyResponse {
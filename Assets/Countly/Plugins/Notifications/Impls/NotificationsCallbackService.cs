@@ -1,5 +1,6 @@
 ﻿using System.Collections.Generic;
 using System.Linq;
+using Plugins.CountlySDK.Enums;
 using Plugins.CountlySDK.Models;
 using Plugins.CountlySDK.Services;
 using UnityEngine;
@@ -10,9 +11,11 @@ namespace Notifications
     {
         CountlyLogHelper _logHelper;
         private readonly List<INotificationListener> _listeners;
-        internal NotificationsCallbackService(CountlyConfiguration configuration, CountlyLogHelper logHelper)
+        private readonly INotificationsService _notificationsService;
+        internal NotificationsCallbackService(CountlyConfiguration configuration, CountlyLogHelper logHelper, INotificationsService notificationsService)
         {
             _logHelper = logHelper;
+            _notificationsService = notificationsService;
             _logHelper.Debug("[NotificationsCallbackService] Initializing.");
             _listeners = configuration.NotificationEventListeners.Distinct().ToList();
         }
@@ -46,6 +49,50 @@ namespace Notifications
 
         }
 
+        /// <summary>
+        /// Counters and latency histograms of the native push path as a JSON string.
+        /// </summary>
+        /// <returns>null when push is disabled or the platform has no native metrics</returns>
+        public string GetPushMetrics()
+        {
+            _logHelper.Debug("[NotificationsCallbackService] GetPushMetrics");
+
+            return _notificationsService.GetPushMetrics();
+        }
+
+        /// <summary>
+        /// Latest native push log lines kept in memory, available even when console logging is disabled.
+        /// </summary>
+        /// <returns>null when push is disabled or the platform has no native log</returns>
+        public string DumpPushLog()
+        {
+            _logHelper.Debug("[NotificationsCallbackService] DumpPushLog");
+
+            return _notificationsService.DumpPushLog();
+        }
+
+        /// <summary>
+        /// Set the minimum level of native push log lines written to the console while console logging is enabled.
+        /// </summary>
+        /// <param name="level"></param>
+        public void SetPushLogLevel(PushLogLevel level)
+        {
+            _logHelper.Debug("[NotificationsCallbackService] SetPushLogLevel: " + level);
+
+            _notificationsService.SetPushLogLevel(level);
+        }
+
+        /// <summary>
+        /// Set the minimum level of native push log lines kept for <see cref="DumpPushLog"/>.
+        /// </summary>
+        /// <param name="level"></param>
+        public void SetPushLogBufferLevel(PushLogLevel level)
+        {
+            _logHelper.Debug("[NotificationsCallbackService] SetPushLogBufferLevel: " + level);
+
+            _notificationsService.SetPushLogBufferLevel(level);
+        }
+
         /// <summary>
         /// Trigger listener's Notification Received event with payload of push notification.
         /// </summary>
@@ -17,7 +17,7 @@ namespace Notifications.Impls
         private readonly INotificationsService _service;
         public bool IsInitializedWithoutError { get; set; }
 
-        internal ProxyNotificationsService(Transform countlyGameObject, CountlyConfiguration config, CountlyLogHelper logHelper, Action<IEnumerator> startCoroutine, EventCountlyService eventCountlyService)
+        internal ProxyNotificationsService(Transform countlyGameObject, CountlyConfiguration config, CountlyLogHelper logHelper, Action<IEnumerator> startCoroutine, EventCountlyService eventCountlyService, Func<string> deviceIdProvider)
         {
             _logHelper = logHelper;
             _logHelper.Debug("[ProxyNotificationsService] Initializing.");
@@ -29,7 +29,7 @@ namespace Notifications.Impls
             }
 
 #if UNITY_ANDROID
-            _service = new Notifications.Impls.Android.AndroidNotificationsService(_countlyGameObject, config, logHelper, eventCountlyService);
+            _service = new Notifications.Impls.Android.AndroidNotificationsService(_countlyGameObject, config, logHelper, eventCountlyService, deviceIdProvider);
 #elif UNITY_IOS
             _service = new Notifications.Impls.iOs.IOsNotificationsService(_countlyGameObject, config, logHelper, startCoroutine, eventCountlyService);
 #endif
@@ -50,6 +50,15 @@ namespace Notifications.Impls
 
         }
 
+        public void ConfirmToken(string token)
+        {
+            _logHelper.Verbose("[ProxyNotificationsService] ConfirmToken");
+
+            if (_service != null) {
+                _service.ConfirmToken(token);
+            }
+        }
+
         public void OnNotificationClicked(Action<string, int> result)
         {
             _logHelper.Verbose("[ProxyNotificationsService] OnNotificationClicked");
@@ -81,5 +90,54 @@ namespace Notifications.Impls
                 IsSuccess = true,
             };
         }
+
+        public void StopPushActionForwarding()
+        {
+            _logHelper.Verbose("[ProxyNotificationsService] StopPushActionForwarding");
+
+            if (_service != null) {
+                _service.StopPushActionForwarding();
+            }
+        }
+
+        public string GetPushMetrics()
+        {
+            _logHelper.Verbose("[ProxyNotificationsService] GetPushMetrics");
+
+            if (_service != null) {
+                return _service.GetPushMetrics();
+            }
+
+            return null;
+        }
+
+        public string DumpPushLog()
+        {
+            _logHelper.Verbose("[ProxyNotificationsService] DumpPushLog");
+
+            if (_service != null) {
+                return _service.DumpPushLog();
+            }
+
+            return null;
+        }
+
+        public void SetPushLogLevel(PushLogLevel level)
+        {
+            _logHelper.Verbose("[ProxyNotificationsService] SetPushLogLevel");
+
+            if (_service != null) {
+                _service.SetPushLogLevel(level);
+            }
+        }
+
+        public void SetPushLogBufferLevel(PushLogLevel level)
+        {
+            _logHelper.Verbose("[ProxyNotificationsService] SetPushLogBufferLevel");
+
+            if (_service != null) {
+                _service.SetPushLogBufferLevel(level);
+            }
+        }
     }
 }
\ No newline at end of file
@@ -1,4 +1,5 @@
-﻿using Plugins.CountlySDK.Helpers;
+﻿using Plugins.CountlySDK.Enums;
+using Plugins.CountlySDK.Helpers;
 using Plugins.CountlySDK.Models;
 using Plugins.CountlySDK.Services;
 using System;
@@ -44,6 +45,11 @@ namespace Notifications.Impls.iOs
             _bridge.GetToken();
         }
 
+        public void ConfirmToken(string token)
+        {
+            // The token is delivered on every start on iOS
+        }
+
         public async Task<CountlyResponse> ReportPushActionAsync()
         {
             string mesageId = _bridge.MessageId;
@@ -71,6 +77,31 @@ namespace Notifications.Impls.iOs
             };
         }
 
+        public void StopPushActionForwarding()
+        {
+            // Push actions are reported through the Unity SDK only on iOS
+        }
+
+        public string GetPushMetrics()
+        {
+            // No native push path metrics on iOS
+            return null;
+        }
+
+        public string DumpPushLog()
+        {
+            // No native push log on iOS
+            return null;
+        }
+
+        public void SetPushLogLevel(PushLogLevel level)
+        {
+        }
+
+        public void SetPushLogBufferLevel(PushLogLevel level)
+        {
+        }
+
         public void OnNotificationClicked(Action<string, int> result)
         {
             Log.Debug("[IOsNotificationsService] OnNotificationClicked register");
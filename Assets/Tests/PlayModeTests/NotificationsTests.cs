@@ -0,0 +1,57 @@
+using NUnit.Framework;
+using Plugins.CountlySDK;
+using Plugins.CountlySDK.Enums;
+using Plugins.CountlySDK.Models;
+
+namespace Assets.Tests.PlayModeTests
+{
+    public class NotificationsTests
+    {
+        private readonly string _serverUrl = "https://xyz.com/";
+        private readonly string _appKey = "772c091355076ead703f987fee94490";
+
+        /// <summary>
+        /// It checks that push metrics are reachable through the notifications service and are empty without a native push plugin.
+        /// </summary>
+        [Test]
+        public void TestGetPushMetrics()
+        {
+            CountlyConfiguration configuration = new CountlyConfiguration {
+                ServerUrl = _serverUrl,
+                AppKey = _appKey,
+                NotificationMode = TestMode.AndroidTestToken
+            };
+
+            Countly.Instance.Init(configuration);
+
+            Assert.IsNotNull(Countly.Instance.Notifications);
+            Assert.IsNull(Countly.Instance.Notifications.GetPushMetrics());
+        }
+
+        /// <summary>
+        /// It checks that the native push log can be configured and dumped through the notifications service, and is empty without a native push plugin.
+        /// </summary>
+        [Test]
+        public void TestPushLog()
+        {
+            CountlyConfiguration configuration = new CountlyConfiguration {
+                ServerUrl = _serverUrl,
+                AppKey = _appKey,
+                NotificationMode = TestMode.AndroidTestToken
+            };
+
+            Countly.Instance.Init(configuration);
+
+            Countly.Instance.Notifications.SetPushLogLevel(PushLogLevel.Warning);
+            Countly.Instance.Notifications.SetPushLogBufferLevel(PushLogLevel.Debug);
+            Assert.IsNull(Countly.Instance.Notifications.DumpPushLog());
+        }
+
+        [SetUp]
+        [TearDown]
+        public void End()
+        {
+            TestUtility.TestCleanup();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package ly.count.unity.push_fcm;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.Build;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Per-notification cost of static resources: resolving them for every message
+ * the way {@code sendNotification} used to, against {@link NotificationResources}.
+ * Results are printed to logcat under "NotificationResourcesBenchmark".
+ */
+@RunWith(AndroidJUnit4.class)
+public class NotificationResourcesBenchmark {
+    private static final String TAG = "NotificationResourcesBenchmark";
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 200;
+
+    @Test
+    public void perNotificationResourceCost() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        final NotificationResources resources = NotificationResources.getInstance(context);
+
+        Runnable uncached = new Runnable() {
+            @Override
+            public void run() {
+                Uri sound = RingtoneManager.getDefaultUri(R.raw.boing);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    notificationManager.getNotificationChannel(CountlyPushPlugin.CHANNEL_ID);
+                }
+                Bitmap icon = BitmapFactory.decodeResource(context.getResources(), R.drawable.ic_stat);
+                int color = context.getResources().getColor(R.color.color_notification);
+                consume(sound, icon, color);
+            }
+        };
+
+        Runnable cached = new Runnable() {
+            @Override
+            public void run() {
+                resources.ensureChannel(PushChannel.DEFAULT);
+                consume(resources.getSound(), resources.getLargeIcon(), resources.getColor());
+            }
+        };
+
+        long before = measure(uncached);
+        long after = measure(cached);
+        Log.i(TAG, "per notification: uncached=" + before + "ns cached=" + after + "ns");
+
+        assertTrue("cached resources should be cheaper, uncached=" + before + "ns cached=" + after + "ns", after < before);
+    }
+
+    private static long measure(Runnable runnable) {
+        for (int i = 0; i < WARMUP; i++) {
+            runnable.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            runnable.run();
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    private static int sink;
+
+    private static void consume(Uri sound, Bitmap icon, int color) {
+        sink += (sound == null ? 0 : 1) + (icon == null ? 0 : icon.getWidth()) + color;
+    }
+}
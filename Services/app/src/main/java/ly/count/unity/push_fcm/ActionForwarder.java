@@ -0,0 +1,243 @@
+package ly.count.unity.push_fcm;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers stored notification actions to Countly server from the Android side, so clicks are reported
+ * even if the user follows a link and never comes back to the game. Unity side passes server details with
+ * {@link #configure}; they are persisted, so a click handled in a fresh process can be sent right away.
+ *
+ * Actions are read from {@link MessageStore} in batches and acknowledged only after the server accepts them.
+ * Failed uploads are retried with exponential backoff from {@link #INITIAL_BACKOFF_MS} up to {@link #MAX_BACKOFF_MS}.
+ * The backoff is persisted and retries are {@link AlarmManager} alarms delivered to {@link NotificationBroadcastReceiver},
+ * so they go on after the process dies. Alarms don't wake the device up, a retry due while it sleeps runs once it's awake.
+ */
+public class ActionForwarder {
+    private static final String PREFERENCES = "countly_push_forwarder";
+    private static final String PREF_SERVER_URL = "server_url";
+    private static final String PREF_APP_KEY = "app_key";
+    private static final String PREF_DEVICE_ID = "device_id";
+    private static final String PREF_SALT = "salt";
+    private static final String PREF_SDK_NAME = "sdk_name";
+    private static final String PREF_SDK_VERSION = "sdk_version";
+    private static final String PREF_BACKOFF = "backoff_ms";
+
+    static final long INITIAL_BACKOFF_MS = 5000;
+    static final long MAX_BACKOFF_MS = 10 * 60 * 1000;
+    private static final int BATCH_SIZE = 50;
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 20000;
+
+    private static ActionForwarder instance;
+
+    private final Context context;
+    private final ActionUploader uploader = new ActionUploader(CONNECT_TIMEOUT_MS, READ_TIMEOUT_MS);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "CountlyPushForwarder");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final Runnable sendTask = new Runnable() {
+        @Override
+        public void run() {
+            send();
+        }
+    };
+    private ScheduledFuture<?> scheduled;
+    private long backoffMs;
+
+    static synchronized ActionForwarder getInstance(Context context) {
+        if (instance == null) {
+            instance = new ActionForwarder(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ActionForwarder(Context context) {
+        this.context = context;
+        this.backoffMs = preferences(context).getLong(PREF_BACKOFF, 0);
+    }
+
+    /**
+     * Called from Unity with the details it uses for its own requests, starts sending right away.
+     *
+     * @param salt parameter tampering protection salt or {@code null}
+     */
+    public static void configure(Context context, String serverUrl, String appKey, String deviceId, String salt, String sdkName, String sdkVersion) {
+        if (serverUrl == null || appKey == null || deviceId == null) {
+            CountlyPushPlugin.log("ActionForwarder needs server URL, app key and device id", CountlyPushPlugin.LogLevel.WARNING);
+            return;
+        }
+        preferences(context).edit()
+                .putString(PREF_SERVER_URL, serverUrl)
+                .putString(PREF_APP_KEY, appKey)
+                .putString(PREF_DEVICE_ID, deviceId)
+                .putString(PREF_SALT, salt)
+                .putString(PREF_SDK_NAME, sdkName)
+                .putString(PREF_SDK_VERSION, sdkVersion)
+                .apply();
+        getInstance(context).flush();
+    }
+
+    /**
+     * Stop sending from the Android side, e.g. when push consent is removed. Stored actions are kept.
+     */
+    public static void disable(Context context) {
+        preferences(context).edit().clear().apply();
+        getInstance(context).cancel();
+    }
+
+    /**
+     * @return whether {@link #configure} was called and not {@link #disable disabled} since
+     */
+    public static boolean isConfigured(Context context) {
+        return loadConfig(context) != null;
+    }
+
+    /**
+     * Send stored actions as soon as possible, no-op until configured.
+     */
+    void flush() {
+        resetBackoff();
+        schedule(0);
+    }
+
+    /**
+     * Run a retry scheduled by {@link #retry()}, keeping the broadcast alive until it's done.
+     */
+    static void onRetryAlarm(Context context, final BroadcastReceiver.PendingResult result) {
+        final ActionForwarder forwarder = getInstance(context);
+        forwarder.scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    forwarder.send();
+                } finally {
+                    result.finish();
+                }
+            }
+        });
+    }
+
+    private synchronized void schedule(long delayMs) {
+        if (scheduled != null && !scheduled.isDone()) {
+            if (scheduled.getDelay(TimeUnit.MILLISECONDS) <= delayMs) {
+                return;
+            }
+            scheduled.cancel(false);
+        }
+        scheduled = scheduler.schedule(sendTask, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void cancel() {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        backoffMs = 0;
+        alarmManager().cancel(retryIntent());
+    }
+
+    private void send() {
+        synchronized (this) {
+            // Lets flush() and retry() schedule the next run while this one is still going
+            scheduled = null;
+        }
+        ActionUploader.Config config = loadConfig(context);
+        if (config == null) {
+            return;
+        }
+        if (!MessageStore.isInitialized()) {
+            MessageStore.init(context);
+        }
+
+        int sent = 0;
+        long cursor = 0;
+        while (true) {
+            ActionJournal.Batch batch = MessageStore.readEntries(cursor, BATCH_SIZE);
+            if (batch == null) {
+                retry();
+                return;
+            }
+            if (batch.entries.isEmpty()) {
+                break;
+            }
+            if (!uploader.upload(config, batch.entries, System.currentTimeMillis())) {
+                retry();
+                return;
+            }
+            // Continuing from the cursor, so a failed ack only means this batch is sent again on the next run
+            MessageStore.ack(batch.nextCursor);
+            sent += batch.entries.size();
+            cursor = batch.nextCursor;
+        }
+
+        resetBackoff();
+        if (sent > 0) {
+            CountlyPushPlugin.log("ActionForwarder sent {} actions", sent, CountlyPushPlugin.LogLevel.DEBUG);
+        }
+    }
+
+    private void retry() {
+        long delay;
+        synchronized (this) {
+            backoffMs = backoffMs == 0 ? INITIAL_BACKOFF_MS : Math.min(MAX_BACKOFF_MS, backoffMs * 2);
+            delay = backoffMs;
+        }
+        preferences(context).edit().putLong(PREF_BACKOFF, delay).apply();
+        CountlyPushPlugin.log("ActionForwarder retrying in {} ms", delay, CountlyPushPlugin.LogLevel.DEBUG);
+        alarmManager().set(AlarmManager.ELAPSED_REALTIME, SystemClock.elapsedRealtime() + delay, retryIntent());
+    }
+
+    private void resetBackoff() {
+        synchronized (this) {
+            if (backoffMs == 0) {
+                return;
+            }
+            backoffMs = 0;
+        }
+        preferences(context).edit().remove(PREF_BACKOFF).apply();
+        alarmManager().cancel(retryIntent());
+    }
+
+    private AlarmManager alarmManager() {
+        return (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    }
+
+    private PendingIntent retryIntent() {
+        Intent intent = new Intent(context, NotificationBroadcastReceiver.class);
+        intent.setAction(NotificationBroadcastReceiver.ACTION_RETRY_FORWARD);
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntentRegistry.flags());
+    }
+
+    private static ActionUploader.Config loadConfig(Context context) {
+        SharedPreferences preferences = preferences(context);
+        String serverUrl = preferences.getString(PREF_SERVER_URL, null);
+        String appKey = preferences.getString(PREF_APP_KEY, null);
+        String deviceId = preferences.getString(PREF_DEVICE_ID, null);
+        if (serverUrl == null || appKey == null || deviceId == null) {
+            return null;
+        }
+        return new ActionUploader.Config(serverUrl, appKey, deviceId, preferences.getString(PREF_SALT, null),
+                preferences.getString(PREF_SDK_NAME, null), preferences.getString(PREF_SDK_VERSION, null));
+    }
+
+    private static SharedPreferences preferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+}
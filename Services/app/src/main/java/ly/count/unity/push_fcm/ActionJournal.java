@@ -0,0 +1,752 @@
+package ly.count.unity.push_fcm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of notification actions stored in a single file.
+ *
+ * Layout: a fixed header ({@code magic, version, base offset}) followed by records of
+ * {@code [int length][int crc32][body]} where body is an encoded {@link ActionRecord}. Appending a record never touches existing data,
+ * so the cost of storing a click doesn't depend on how many clicks are already stored.
+ * A torn tail left by a crash is detected by length/checksum and cut off on open.
+ *
+ * Records are addressed by cursor, a logical byte position that keeps growing across
+ * {@link #ack(long)} and {@link #clear()}, so a cursor handed out once never points to a different record later.
+ *
+ * Several journals may work on the same file, in one process or in several. Every operation holds an exclusive
+ * {@link FileLock} on a {@code .lock} file next to the journal, which also keeps a generation number bumped on each
+ * rewrite; after taking the lock a journal reopens the file if the generation moved, or scans only the records
+ * appended by others since its last operation.
+ *
+ * Size stays bounded without the Unity side ever syncing: a click stored again, with the same message, action and click
+ * time, is merged into the stored one, and {@link #compact(long)} drops the oldest records once they expire or the journal goes over
+ * its record or byte cap. Only the head is ever dropped, the same way {@link #ack(long)} does it, so cursors stay valid.
+ */
+class ActionJournal {
+    private static final int MAGIC = 0x434C5941; // "CLYA"
+    private static final byte VERSION = 1;
+    static final int HEADER_SIZE = 4 + 1 + 8;
+    private static final int RECORD_OVERHEAD = 4 + 4;
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+
+    enum FsyncPolicy {
+        /** Leave flushing to the OS, fastest but a power loss may drop recent records */
+        NEVER,
+        /** Force every append to disk before returning */
+        ALWAYS,
+        /**
+         * Force at most once per {@link #PERIODIC_FSYNC_INTERVAL_MS}, appends in between are forced once the interval is up
+         * or on {@link #close()}, so a power loss drops at most the records appended during the last interval
+         */
+        PERIODIC
+    }
+
+    static final long PERIODIC_FSYNC_INTERVAL_MS = 2000;
+
+    static final int DEFAULT_MAX_RECORDS = 1000;
+    static final long DEFAULT_MAX_BYTES = 256 * 1024;
+    static final long DEFAULT_MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+
+    static class Batch {
+        final List<ActionRecord> entries;
+        final long nextCursor;
+
+        Batch(List<ActionRecord> entries, long nextCursor) {
+            this.entries = entries;
+            this.nextCursor = nextCursor;
+        }
+    }
+
+    // FileLock is held per process, so journals of one process on the same file take turns on this first
+    private static final Map<String, ReentrantLock> PROCESS_LOCKS = new HashMap<>();
+    // Runs forces the PERIODIC policy deferred, shared by all journals
+    private static final ScheduledExecutorService FORCE_SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "CountlyPushJournalSync");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final File file;
+    private final File lockFile;
+    private final ReentrantLock processLock;
+    private FsyncPolicy fsyncPolicy;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private RandomAccessFile lockRaf;
+    private FileLock fileLock;
+    private int lockDepth;
+    private long generation;
+    // Journal file size as of the last operation of this instance, to spot appends from other instances
+    private long knownSize;
+    private long baseOffset;
+    private long lastForce;
+    // Appends written since the last force, and whether a deferred force is on its way for them
+    private boolean forcePending;
+    private boolean forceScheduled;
+    private final Runnable deferredForce = new Runnable() {
+        @Override
+        public void run() {
+            forceDeferred();
+        }
+    };
+    private int recordCount;
+    // Stored records per message, action and click time, to merge replayed clicks
+    private final Map<String, Integer> keys = new HashMap<>();
+    private int maxRecords = DEFAULT_MAX_RECORDS;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long maxAgeMs = DEFAULT_MAX_AGE_MS;
+
+    ActionJournal(File file, FsyncPolicy fsyncPolicy) {
+        this.file = file;
+        this.lockFile = new File(file.getPath() + ".lock");
+        this.fsyncPolicy = fsyncPolicy;
+        this.processLock = processLock(file);
+    }
+
+    synchronized void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+        this.fsyncPolicy = fsyncPolicy;
+    }
+
+    /**
+     * Limits applied by {@link #compact(long)}, compaction trims to 90% of a cap so it doesn't run on every append.
+     *
+     * @param maxAgeMs records clicked longer ago are dropped, records of older plugin versions without a click time never expire
+     */
+    synchronized void setRetention(int maxRecords, long maxBytes, long maxAgeMs) {
+        this.maxRecords = Math.max(1, maxRecords);
+        this.maxBytes = Math.max(MAX_RECORD_SIZE, maxBytes);
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    synchronized boolean isEmpty() throws IOException {
+        lock();
+        try {
+            return channel.size() <= HEADER_SIZE;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Append single action to the end of journal.
+     */
+    synchronized void append(ActionRecord record) throws IOException {
+        append(Collections.singletonList(record));
+    }
+
+    /**
+     * Append actions with a single write and, depending on {@link FsyncPolicy}, a single force.
+     * Replays of actions already stored, same message, action index and click time, are merged into the stored ones;
+     * clicking the same action again is a new action.
+     * Nothing is written if any of them can't be encoded.
+     *
+     * @return number of actions written, the rest were merged
+     */
+    synchronized int append(List<ActionRecord> records) throws IOException {
+        lock();
+        try {
+            List<ActionRecord> added = new ArrayList<>(records.size());
+            for (ActionRecord record : records) {
+                if (!keys.containsKey(key(record))) {
+                    added.add(record);
+                    index(record);
+                }
+            }
+            ByteBuffer buffer;
+            try {
+                buffer = encodeAll(added);
+            } catch (IOException e) {
+                for (ActionRecord record : added) {
+                    unindex(record);
+                }
+                throw e;
+            }
+
+            long position = channel.size();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            force();
+            knownSize = position;
+            recordCount += added.size();
+            if (added.size() < records.size()) {
+                PushMetrics.actionsMerged.add(records.size() - added.size());
+            }
+            return added.size();
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Drop the oldest records that are expired or over the record and byte caps.
+     *
+     * @param now current time in milliseconds since epoch
+     * @return number of records dropped
+     */
+    synchronized int compact(long now) throws IOException {
+        lock();
+        try {
+            long size = channel.size();
+            int targetRecords = recordCount > maxRecords ? maxRecords - maxRecords / 10 : recordCount;
+            long targetBytes = size - HEADER_SIZE > maxBytes ? maxBytes - maxBytes / 10 : size - HEADER_SIZE;
+            long expiry = now - maxAgeMs;
+
+            int dropped = 0;
+            int remaining = recordCount;
+            long position = HEADER_SIZE;
+            ByteBuffer head = ByteBuffer.allocate(RECORD_OVERHEAD);
+            while (position + RECORD_OVERHEAD <= size) {
+                head.clear();
+                readFully(head, position);
+                head.flip();
+                int length = head.getInt();
+                if (remaining <= targetRecords && size - position <= targetBytes) {
+                    ByteBuffer body = ByteBuffer.allocate(length);
+                    readFully(body, position + RECORD_OVERHEAD);
+                    long timestamp = ActionRecord.decode(body.array()).timestamp;
+                    if (timestamp == ActionRecord.UNKNOWN_TIMESTAMP || timestamp >= expiry) {
+                        break;
+                    }
+                }
+                position += RECORD_OVERHEAD + length;
+                remaining--;
+                dropped++;
+            }
+
+            if (dropped > 0) {
+                ackLocked(toCursor(position));
+                PushMetrics.actionsTrimmed.add(dropped);
+                CountlyPushPlugin.log("ActionJournal: dropped {} old records, {} left", dropped, remaining, CountlyPushPlugin.LogLevel.DEBUG);
+            }
+            return dropped;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * @return number of records currently stored
+     */
+    synchronized int count() throws IOException {
+        lock();
+        try {
+            return recordCount;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Read all records currently stored in the journal.
+     */
+    synchronized List<ActionRecord> readAll() throws IOException {
+        return readBatch(0, Integer.MAX_VALUE).entries;
+    }
+
+    /**
+     * Read up to {@code maxRecords} records starting at {@code cursor}. Cursors older than
+     * the first stored record start the batch from the first stored record.
+     *
+     * @return records read and the cursor to continue from, which is also the cursor to {@link #ack(long)} them with
+     */
+    synchronized Batch readBatch(long cursor, int maxRecords) throws IOException {
+        lock();
+        try {
+            return readBatchLocked(cursor, maxRecords);
+        } finally {
+            unlock();
+        }
+    }
+
+    private Batch readBatchLocked(long cursor, int maxRecords) throws IOException {
+        long size = channel.size();
+        long end = baseOffset + size - HEADER_SIZE;
+        if (cursor > end) {
+            throw new IllegalArgumentException("Cursor " + cursor + " is beyond journal end " + end);
+        }
+        if (cursor > baseOffset) {
+            checkRecordBoundary(cursor);
+        }
+
+        List<ActionRecord> entries = new ArrayList<>();
+        long position = toFilePosition(Math.max(cursor, baseOffset));
+        ByteBuffer head = ByteBuffer.allocate(RECORD_OVERHEAD);
+        while (entries.size() < maxRecords && position + RECORD_OVERHEAD <= size) {
+            head.clear();
+            readFully(head, position);
+            head.flip();
+            int length = head.getInt();
+            head.getInt();
+
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(body, position + RECORD_OVERHEAD);
+            entries.add(ActionRecord.decode(body.array()));
+            position += RECORD_OVERHEAD + length;
+        }
+        return new Batch(entries, toCursor(position));
+    }
+
+    /**
+     * Acknowledge every record before {@code cursor}, they are removed from the journal and
+     * will not be returned again. {@code cursor} must be one returned from {@link #readBatch(long, int)}.
+     * Records appended after that batch was read are kept.
+     *
+     * @throws IllegalArgumentException if {@code cursor} is past the end or in the middle of a record
+     * @return {@code true} if anything was removed
+     */
+    synchronized boolean ack(long cursor) throws IOException {
+        lock();
+        try {
+            return ackLocked(cursor);
+        } finally {
+            unlock();
+        }
+    }
+
+    private boolean ackLocked(long cursor) throws IOException {
+        long size = channel.size();
+        long end = baseOffset + size - HEADER_SIZE;
+        if (cursor <= baseOffset) {
+            return false;
+        }
+        if (cursor > end) {
+            throw new IllegalArgumentException("Cursor " + cursor + " is beyond journal end " + end);
+        }
+
+        if (cursor == end) {
+            clearLocked();
+            return true;
+        }
+        checkRecordBoundary(cursor);
+
+        // Rewrite the unacknowledged tail into a new file and swap it in, so a crash leaves either the old or the new journal
+        File compacted = new File(file.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(compacted, "rw");
+        try {
+            FileChannel outChannel = out.getChannel();
+            outChannel.truncate(0);
+            ByteBuffer header = headerBuffer(cursor);
+            while (header.hasRemaining()) {
+                outChannel.write(header);
+            }
+            long position = toFilePosition(cursor);
+            while (position < size) {
+                position += channel.transferTo(position, size - position, outChannel);
+            }
+            outChannel.force(true);
+        } finally {
+            out.close();
+        }
+
+        closeJournal();
+        if (!compacted.renameTo(file)) {
+            throw new IOException("Cannot replace journal with compacted copy");
+        }
+        // Others still have the replaced file open, the new generation tells them to reopen
+        bumpGeneration();
+        open();
+        return true;
+    }
+
+    /**
+     * Drop all records. Base offset moves forward so positions never repeat.
+     */
+    synchronized void clear() throws IOException {
+        lock();
+        try {
+            clearLocked();
+        } finally {
+            unlock();
+        }
+    }
+
+    private void clearLocked() throws IOException {
+        baseOffset += channel.size() - HEADER_SIZE;
+        channel.truncate(HEADER_SIZE);
+        recordCount = 0;
+        keys.clear();
+        writeHeader();
+        channel.force(true);
+        knownSize = HEADER_SIZE;
+        bumpGeneration();
+    }
+
+    synchronized void close() {
+        if (forcePending && channel != null) {
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                CountlyPushPlugin.log("ActionJournal: cannot force on close", e, CountlyPushPlugin.LogLevel.WARNING);
+            }
+        }
+        forcePending = false;
+        closeJournal();
+        if (lockRaf != null) {
+            try {
+                lockRaf.close();
+            } catch (IOException ignored) {
+            }
+            lockRaf = null;
+        }
+    }
+
+    /**
+     * Take the cross-process lock and catch up with changes made by others. Reentrant, every call must be
+     * paired with {@link #unlock()}.
+     */
+    private void lock() throws IOException {
+        processLock.lock();
+        if (lockDepth++ > 0) {
+            return;
+        }
+        try {
+            if (lockRaf == null) {
+                File parent = file.getParentFile();
+                if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                    throw new IOException("Cannot create directory " + parent);
+                }
+                lockRaf = new RandomAccessFile(lockFile, "rw");
+            }
+            fileLock = lockRaf.getChannel().lock();
+            refresh();
+        } catch (IOException | RuntimeException e) {
+            unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Walk record heads up to {@code cursor}, which must be within the journal, so a cursor that isn't one handed out
+     * never gets the tail rewritten from the middle of a record.
+     */
+    private void checkRecordBoundary(long cursor) throws IOException {
+        long target = toFilePosition(cursor);
+        long position = HEADER_SIZE;
+        ByteBuffer length = ByteBuffer.allocate(4);
+        while (position < target) {
+            length.clear();
+            readFully(length, position);
+            length.flip();
+            position += RECORD_OVERHEAD + length.getInt();
+        }
+        if (position != target) {
+            throw new IllegalArgumentException("Cursor " + cursor + " is not at a record boundary");
+        }
+    }
+
+    private void unlock() {
+        if (--lockDepth == 0 && fileLock != null) {
+            try {
+                fileLock.release();
+            } catch (IOException e) {
+                CountlyPushPlugin.log("ActionJournal: cannot release lock", e, CountlyPushPlugin.LogLevel.WARNING);
+            }
+            fileLock = null;
+        }
+        processLock.unlock();
+    }
+
+    private void refresh() throws IOException {
+        long current = readGeneration();
+        if (current != generation || (channel != null && channel.size() < knownSize)) {
+            closeJournal();
+            generation = current;
+        }
+        if (channel == null) {
+            open();
+            return;
+        }
+
+        long size = channel.size();
+        if (size > knownSize) {
+            long validEnd = scanValidEnd(knownSize, recordCount);
+            if (validEnd < size) {
+                CountlyPushPlugin.log("ActionJournal: truncating torn tail at " + validEnd, CountlyPushPlugin.LogLevel.WARNING);
+                channel.truncate(validEnd);
+                channel.force(true);
+            }
+            knownSize = validEnd;
+        }
+    }
+
+    private long readGeneration() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        FileChannel lockChannel = lockRaf.getChannel();
+        while (buffer.hasRemaining()) {
+            if (lockChannel.read(buffer, buffer.position()) < 0) {
+                return 0;
+            }
+        }
+        buffer.flip();
+        return buffer.getLong();
+    }
+
+    private void bumpGeneration() throws IOException {
+        generation++;
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(generation);
+        buffer.flip();
+        FileChannel lockChannel = lockRaf.getChannel();
+        while (buffer.hasRemaining()) {
+            lockChannel.write(buffer, buffer.position());
+        }
+    }
+
+    private static ReentrantLock processLock(File file) {
+        String path = file.getAbsolutePath();
+        synchronized (PROCESS_LOCKS) {
+            ReentrantLock lock = PROCESS_LOCKS.get(path);
+            if (lock == null) {
+                lock = new ReentrantLock();
+                PROCESS_LOCKS.put(path, lock);
+            }
+            return lock;
+        }
+    }
+
+    private void closeJournal() {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException ignored) {
+            }
+            raf = null;
+            channel = null;
+        }
+    }
+
+    private void open() throws IOException {
+        if (channel != null) {
+            return;
+        }
+
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        keys.clear();
+
+        if (channel.size() < HEADER_SIZE || !readHeader()) {
+            if (channel.size() > 0) {
+                CountlyPushPlugin.log("ActionJournal: unreadable header, resetting journal", CountlyPushPlugin.LogLevel.WARNING);
+            }
+            baseOffset = 0;
+            recordCount = 0;
+            channel.truncate(0);
+            writeHeader();
+            channel.force(true);
+            knownSize = HEADER_SIZE;
+            bumpGeneration();
+            return;
+        }
+
+        long validEnd = scanValidEnd(HEADER_SIZE, 0);
+        if (validEnd < channel.size()) {
+            CountlyPushPlugin.log("ActionJournal: truncating torn tail at " + validEnd, CountlyPushPlugin.LogLevel.WARNING);
+            channel.truncate(validEnd);
+            channel.force(true);
+        }
+        knownSize = validEnd;
+    }
+
+    private boolean readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            return false;
+        }
+        if (header.get() != VERSION) {
+            return false;
+        }
+        baseOffset = header.getLong();
+        return true;
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = headerBuffer(baseOffset);
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+    }
+
+    private static ByteBuffer headerBuffer(long base) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.put(VERSION);
+        header.putLong(base);
+        header.flip();
+        return header;
+    }
+
+    private long toFilePosition(long cursor) {
+        return cursor - baseOffset + HEADER_SIZE;
+    }
+
+    private long toCursor(long filePosition) {
+        return baseOffset + filePosition - HEADER_SIZE;
+    }
+
+    /**
+     * Walk the records from {@code position} validating length and checksum, returns position right after
+     * the last good one and updates record count.
+     *
+     * @param count number of records before {@code position}
+     */
+    private long scanValidEnd(long position, int count) throws IOException {
+        long size = channel.size();
+        ByteBuffer head = ByteBuffer.allocate(RECORD_OVERHEAD);
+        while (position + RECORD_OVERHEAD <= size) {
+            head.clear();
+            readFully(head, position);
+            head.flip();
+            int length = head.getInt();
+            int checksum = head.getInt();
+            if (length < 0 || length > MAX_RECORD_SIZE || position + RECORD_OVERHEAD + length > size) {
+                break;
+            }
+
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(body, position + RECORD_OVERHEAD);
+            if (crc(body.array()) != checksum) {
+                break;
+            }
+            try {
+                index(ActionRecord.decode(body.array()));
+            } catch (IOException e) {
+                CountlyPushPlugin.log("ActionJournal: undecodable record at " + position, e, CountlyPushPlugin.LogLevel.WARNING);
+            }
+            position += RECORD_OVERHEAD + length;
+            count++;
+        }
+        recordCount = count;
+        return position;
+    }
+
+    private void index(ActionRecord record) {
+        String key = key(record);
+        Integer count = keys.get(key);
+        keys.put(key, count == null ? 1 : count + 1);
+    }
+
+    private void unindex(ActionRecord record) {
+        String key = key(record);
+        Integer count = keys.get(key);
+        if (count == null || count <= 1) {
+            keys.remove(key);
+        } else {
+            keys.put(key, count - 1);
+        }
+    }
+
+    private static String key(ActionRecord record) {
+        return record.messageId + '\n' + record.actionIndex + '\n' + record.timestamp;
+    }
+
+    private void force() throws IOException {
+        switch (fsyncPolicy) {
+            case ALWAYS:
+                channel.force(false);
+                forcePending = false;
+                break;
+            case PERIODIC:
+                long now = System.currentTimeMillis();
+                if (now - lastForce >= PERIODIC_FSYNC_INTERVAL_MS) {
+                    channel.force(false);
+                    lastForce = now;
+                    forcePending = false;
+                } else {
+                    forcePending = true;
+                    if (!forceScheduled) {
+                        forceScheduled = true;
+                        FORCE_SCHEDULER.schedule(deferredForce, lastForce + PERIODIC_FSYNC_INTERVAL_MS - now, TimeUnit.MILLISECONDS);
+                    }
+                }
+                break;
+            case NEVER:
+                break;
+        }
+    }
+
+    private synchronized void forceDeferred() {
+        forceScheduled = false;
+        if (!forcePending) {
+            return;
+        }
+        try {
+            lock();
+            try {
+                channel.force(false);
+                lastForce = System.currentTimeMillis();
+                forcePending = false;
+            } finally {
+                unlock();
+            }
+        } catch (IOException e) {
+            CountlyPushPlugin.log("ActionJournal: deferred force failed", e, CountlyPushPlugin.LogLevel.WARNING);
+        }
+    }
+
+    /**
+     * @return whether appends are waiting for a deferred force
+     */
+    synchronized boolean isForcePending() {
+        return forcePending;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of journal at " + position);
+            }
+            position += read;
+        }
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length);
+        return (int) crc32.getValue();
+    }
+
+    private static ByteBuffer encodeAll(List<ActionRecord> records) throws IOException {
+        int total = 0;
+        byte[][] bodies = new byte[records.size()][];
+        for (int i = 0; i < bodies.length; i++) {
+            bodies[i] = records.get(i).encode();
+            if (bodies[i].length > MAX_RECORD_SIZE) {
+                throw new IOException("Record too large: " + bodies[i].length);
+            }
+            total += RECORD_OVERHEAD + bodies[i].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        for (byte[] body : bodies) {
+            buffer.putInt(body.length);
+            buffer.putInt(crc(body));
+            buffer.put(body);
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,120 @@
+package ly.count.unity.push_fcm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.charset.Charset;
+
+/**
+ * Notification action as stored in {@link ActionJournal}: which message and button, when it was clicked,
+ * which link it opened and how long the notification was shown before the click.
+ *
+ * Serialized as {@code [varint id length][id][varint action index][varint timestamp][int link hash][varint dwell + 1]},
+ * 15-20 bytes plus the id for a typical click.
+ */
+class ActionRecord {
+    /** {@link #dwellMs} when delivery time isn't known, e.g. for actions stored by older plugin versions */
+    static final long UNKNOWN_DWELL = -1;
+    /** {@link #timestamp} of actions stored by older plugin versions */
+    static final long UNKNOWN_TIMESTAMP = 0;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_ID_LENGTH = 0xFFFF;
+
+    final String messageId;
+    final int actionIndex;
+    /** Click time in milliseconds since epoch */
+    final long timestamp;
+    /** {@link #hashLink(String)} of the link opened by the action, 0 if it opened the app */
+    final int linkHash;
+    /** Milliseconds from showing the notification to the click */
+    final long dwellMs;
+
+    ActionRecord(String messageId, int actionIndex, long timestamp, int linkHash, long dwellMs) {
+        this.messageId = messageId;
+        this.actionIndex = actionIndex;
+        this.timestamp = timestamp;
+        this.linkHash = linkHash;
+        this.dwellMs = dwellMs;
+    }
+
+    /**
+     * Action clicked at {@code clickedAt} on a notification shown at {@code deliveredAt}.
+     *
+     * @param link link opened by the action or {@code null}
+     * @param deliveredAt milliseconds since epoch or 0 if unknown
+     */
+    static ActionRecord clicked(String messageId, int actionIndex, String link, long deliveredAt, long clickedAt) {
+        long dwell = deliveredAt > 0 ? Math.max(0, clickedAt - deliveredAt) : UNKNOWN_DWELL;
+        return new ActionRecord(messageId, actionIndex, clickedAt, hashLink(link), dwell);
+    }
+
+    /**
+     * Same as {@link String#hashCode()}, which is specified, so the server can compute it for the links it sent.
+     */
+    static int hashLink(String link) {
+        return link == null ? 0 : link.hashCode();
+    }
+
+    byte[] encode() throws IOException {
+        byte[] id = messageId.getBytes(UTF_8);
+        if (id.length > MAX_ID_LENGTH) {
+            throw new IOException("Message id too long: " + id.length);
+        }
+        if (actionIndex < 0 || timestamp < 0 || dwellMs < UNKNOWN_DWELL) {
+            throw new IOException("Invalid action record for " + messageId);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(id.length + 3 * 10 + 4 + 3);
+        putVarint(buffer, id.length);
+        buffer.put(id);
+        putVarint(buffer, actionIndex);
+        putVarint(buffer, timestamp);
+        buffer.putInt(linkHash);
+        putVarint(buffer, dwellMs + 1);
+
+        byte[] bytes = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    static ActionRecord decode(byte[] body) throws IOException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(body);
+            int idLength = (int) getVarint(buffer);
+            if (idLength > buffer.remaining()) {
+                throw new IOException("Corrupt action record");
+            }
+            String messageId = new String(body, buffer.position(), idLength, UTF_8);
+            buffer.position(buffer.position() + idLength);
+            int actionIndex = (int) getVarint(buffer);
+            long timestamp = getVarint(buffer);
+            int linkHash = buffer.getInt();
+            long dwell = getVarint(buffer) - 1;
+            return new ActionRecord(messageId, actionIndex, timestamp, linkHash, dwell);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Corrupt action record", e);
+        }
+    }
+
+    private static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarint(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt varint in action record");
+    }
+}
@@ -0,0 +1,220 @@
+package ly.count.unity.push_fcm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Sends stored notification actions to Countly server as {@code [CLY]_push_action} events,
+ * in the same request format the Unity SDK uses for events.
+ */
+class ActionUploader {
+    static final String PUSH_ACTION_EVENT = "[CLY]_push_action";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_RESPONSE_BYTES = 16 * 1024;
+
+    static class Config {
+        final String serverUrl;
+        final String appKey;
+        final String deviceId;
+        final String salt;
+        final String sdkName;
+        final String sdkVersion;
+
+        Config(String serverUrl, String appKey, String deviceId, String salt, String sdkName, String sdkVersion) {
+            this.serverUrl = serverUrl.endsWith("/") ? serverUrl.substring(0, serverUrl.length() - 1) : serverUrl;
+            this.appKey = appKey;
+            this.deviceId = deviceId;
+            this.salt = salt;
+            this.sdkName = sdkName;
+            this.sdkVersion = sdkVersion;
+        }
+    }
+
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+
+    ActionUploader(int connectTimeoutMs, int readTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    /**
+     * POST actions to {@code /i} in one request.
+     *
+     * @return {@code true} if server accepted the request, {@code false} if it should be retried later
+     */
+    boolean upload(Config config, List<ActionRecord> entries, long now) {
+        HttpURLConnection connection = null;
+        try {
+            byte[] body = buildRequest(config, entries, now).getBytes(UTF_8);
+
+            connection = (HttpURLConnection) new URL(config.serverUrl + "/i").openConnection();
+            connection.setConnectTimeout(connectTimeoutMs);
+            connection.setReadTimeout(readTimeoutMs);
+            connection.setUseCaches(false);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            connection.setFixedLengthStreamingMode(body.length);
+
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+
+            int code = connection.getResponseCode();
+            if (code < 200 || code >= 300) {
+                CountlyPushPlugin.log("Push actions upload failed with HTTP {}", code, CountlyPushPlugin.LogLevel.WARNING);
+                return false;
+            }
+            // Same check as the Unity SDK: a successful response is a JSON object with "result"
+            if (!readResponse(connection).contains("\"result\"")) {
+                CountlyPushPlugin.log("Push actions upload got unexpected response", CountlyPushPlugin.LogLevel.WARNING);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            CountlyPushPlugin.log("Push actions upload failed", e, CountlyPushPlugin.LogLevel.WARNING);
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Events are timestamped with the click time and carry the time from showing the notification
+     * to the click as {@code dur} in seconds when known. Actions stored without a click time get {@code now}.
+     */
+    static String buildRequest(Config config, List<ActionRecord> entries, long now) throws UnsupportedEncodingException {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        int hour = calendar.get(Calendar.HOUR_OF_DAY);
+        int dow = calendar.get(Calendar.DAY_OF_WEEK) - 1;
+        int tz = calendar.getTimeZone().getOffset(now) / 60000;
+
+        StringBuilder events = new StringBuilder("[");
+        for (int i = 0; i < entries.size(); i++) {
+            ActionRecord entry = entries.get(i);
+            if (i > 0) {
+                events.append(',');
+            }
+            long timestamp = entry.timestamp == ActionRecord.UNKNOWN_TIMESTAMP ? now : entry.timestamp;
+            calendar.setTimeInMillis(timestamp);
+            events.append("{\"key\":");
+            appendJsonString(events, PUSH_ACTION_EVENT);
+            events.append(",\"count\":1,\"timestamp\":").append(timestamp)
+                    .append(",\"hour\":").append(calendar.get(Calendar.HOUR_OF_DAY))
+                    .append(",\"dow\":").append(calendar.get(Calendar.DAY_OF_WEEK) - 1);
+            if (entry.dwellMs != ActionRecord.UNKNOWN_DWELL) {
+                events.append(",\"dur\":").append(entry.dwellMs / 1000.0);
+            }
+            events.append(",\"segmentation\":{\"b\":");
+            appendJsonString(events, entry.messageId);
+            events.append(",\"i\":");
+            appendJsonString(events, Integer.toString(entry.actionIndex));
+            events.append(",\"p\":\"a\"}}");
+        }
+        events.append(']');
+
+        StringBuilder query = new StringBuilder();
+        appendParam(query, "app_key", config.appKey);
+        appendParam(query, "device_id", config.deviceId);
+        appendParam(query, "sdk_name", config.sdkName);
+        appendParam(query, "sdk_version", config.sdkVersion);
+        appendParam(query, "timestamp", Long.toString(now));
+        appendParam(query, "hour", Integer.toString(hour));
+        appendParam(query, "dow", Integer.toString(dow));
+        appendParam(query, "tz", Integer.toString(tz));
+        appendParam(query, "events", events.toString());
+
+        if (config.salt != null && !config.salt.isEmpty()) {
+            String checksum = sha256(query.toString() + config.salt);
+            query.append("&checksum256=").append(checksum);
+        }
+        return query.toString();
+    }
+
+    private static void appendParam(StringBuilder query, String name, String value) throws UnsupportedEncodingException {
+        if (value == null) {
+            return;
+        }
+        if (query.length() > 0) {
+            query.append('&');
+        }
+        query.append(name).append('=').append(URLEncoder.encode(value, "UTF-8"));
+    }
+
+    static void appendJsonString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        builder.append('"');
+    }
+
+    private static String sha256(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String readResponse(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getInputStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while (out.size() < MAX_RESPONSE_BYTES && (read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+}
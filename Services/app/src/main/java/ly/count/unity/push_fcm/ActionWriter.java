@@ -0,0 +1,161 @@
+package ly.count.unity.push_fcm;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Single writer in front of {@link ActionJournal}. Callers put actions into a lock-free queue and wait;
+ * one thread drains the queue and appends everything queued so far with one journal write and one force,
+ * so concurrent clicks share the file lock and fsync instead of queueing on them one by one.
+ *
+ * {@link #append(ActionRecord)} returns only after the action is in the journal, so nothing acknowledged
+ * to the caller can be lost with the process. Once the queue is empty the same thread runs
+ * {@link ActionJournal#compact(long)}, so retention never holds up a caller.
+ */
+class ActionWriter {
+    private static final int MAX_BATCH = 256;
+    static final long APPEND_TIMEOUT_MS = 5000;
+
+    private static class Pending {
+        final ActionRecord record;
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile IOException error;
+
+        Pending(ActionRecord record) {
+            this.record = record;
+        }
+    }
+
+    private final ActionJournal journal;
+    private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "CountlyPushStoreWriter");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+    private final Runnable compactTask = new Runnable() {
+        @Override
+        public void run() {
+            compact();
+        }
+    };
+
+    ActionWriter(ActionJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Queue an action and wait until it is appended to the journal.
+     *
+     * @throws IOException if the action couldn't be stored, {@link InterruptedIOException} if it wasn't stored
+     * within {@link #APPEND_TIMEOUT_MS}; it may still be stored later in that case
+     */
+    void append(ActionRecord record) throws IOException {
+        Pending pending = new Pending(record);
+        queue.add(pending);
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(drainTask);
+        }
+
+        try {
+            if (!pending.done.await(APPEND_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new InterruptedIOException("Timed out storing action");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while storing action");
+        }
+        if (pending.error != null) {
+            throw pending.error;
+        }
+    }
+
+    /**
+     * Run {@link ActionJournal#compact(long)} on the writer thread, e.g. after opening a journal that may have aged.
+     */
+    void compactSoon() {
+        executor.execute(compactTask);
+    }
+
+    private void drain() {
+        List<Pending> batch = new ArrayList<>();
+        boolean wrote = false;
+        while (true) {
+            Pending pending;
+            while (batch.size() < MAX_BATCH && (pending = queue.poll()) != null) {
+                batch.add(pending);
+            }
+            if (batch.isEmpty()) {
+                if (wrote) {
+                    compact();
+                    wrote = false;
+                }
+                draining.set(false);
+                // An action queued after the last poll may have seen the flag still set and left it to this run
+                if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            write(batch);
+            batch.clear();
+            wrote = true;
+        }
+    }
+
+    private void compact() {
+        try {
+            journal.compact(System.currentTimeMillis());
+        } catch (IOException | RuntimeException e) {
+            CountlyPushPlugin.log("Action store compaction failed", e, CountlyPushPlugin.LogLevel.WARNING);
+        }
+    }
+
+    private void write(List<Pending> batch) {
+        List<ActionRecord> records = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            records.add(pending.record);
+        }
+
+        try {
+            journal.append(records);
+            complete(batch, null);
+        } catch (IOException | RuntimeException e) {
+            if (batch.size() == 1) {
+                complete(batch, e instanceof IOException ? (IOException) e : new IOException(e));
+                return;
+            }
+            // Don't let one bad action fail the others
+            for (Pending pending : batch) {
+                write(Collections.singletonList(pending));
+            }
+        }
+    }
+
+    private static void complete(List<Pending> batch, IOException error) {
+        for (Pending pending : batch) {
+            pending.error = error;
+            pending.done.countDown();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ly.count.unity.push_fcm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Single pass reader for {@code c.b} buttons JSON: {@code [{"t": "title", "l": "link"}, ...]}.
+ * Picks title and link straight out of the string and skips everything else without building
+ * a JSON object tree for it.
+ */
+final class ButtonsParser extends JsonScanner {
+    static final class Entry {
+        /** Position in the array starting from 1, same as button index reported on click */
+        final int index;
+        final String title;
+        final String link;
+
+        Entry(int index, String title, String link) {
+            this.index = index;
+            this.title = title;
+            this.link = link;
+        }
+    }
+
+    private ButtonsParser(String json) {
+        super(json);
+    }
+
+    /**
+     * Read buttons having both title and link. On malformed input, buttons read before the error are returned.
+     *
+     * @param json {@code c.b} value
+     * @return list of buttons, empty if none
+     */
+    static List<Entry> parse(String json) {
+        if (json == null) {
+            return Collections.emptyList();
+        }
+
+        List<Entry> entries = new ArrayList<>(3);
+        ButtonsParser parser = new ButtonsParser(json);
+        try {
+            parser.readButtons(entries);
+        } catch (IllegalArgumentException e) {
+            CountlyPushPlugin.log("Failed to parse buttons JSON", e, CountlyPushPlugin.LogLevel.WARNING);
+        }
+        return entries;
+    }
+
+    private void readButtons(List<Entry> entries) {
+        expect('[');
+        if (peek() == ']') {
+            position++;
+            return;
+        }
+
+        int index = 0;
+        while (true) {
+            index++;
+            if (peek() == '{') {
+                readButton(index, entries);
+            } else {
+                skipValue();
+            }
+
+            char c = next();
+            if (c == ']') {
+                return;
+            }
+            if (c != ',') {
+                throw error("Expected ',' or ']'");
+            }
+        }
+    }
+
+    private void readButton(int index, List<Entry> entries) {
+        expect('{');
+        String title = null, link = null;
+        boolean hasTitle = false, hasLink = false;
+
+        if (peek() == '}') {
+            position++;
+        } else {
+            while (true) {
+                String key = readString();
+                expect(':');
+                if (CountlyPushPlugin.KEY_BUTTONS_TITLE.equals(key)) {
+                    hasTitle = true;
+                    title = readScalar();
+                } else if (CountlyPushPlugin.KEY_BUTTONS_LINK.equals(key)) {
+                    hasLink = true;
+                    link = readScalar();
+                } else {
+                    skipValue();
+                }
+
+                char c = next();
+                if (c == '}') {
+                    break;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+
+        if (hasTitle && hasLink && title != null && link != null) {
+            entries.add(new Entry(index, title, link));
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package ly.count.unity.push_fcm;
+
+import android.app.NotificationManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Click work which doesn't have to happen before the target activity starts: storing and forwarding the action,
+ * dismissing the notification and telling Unity. Runs on a single worker thread whichever way the click came in.
+ */
+final class ClickRecorder {
+    /** Well under the 10 seconds a foreground broadcast gets before ANR */
+    static final long FINISH_DEADLINE_MS = 8000;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ThreadPoolExecutor worker;
+
+    private ClickRecorder() {
+    }
+
+    /**
+     * Record a click in background.
+     *
+     * @param result broadcast kept alive while recording, finished by {@link #FINISH_DEADLINE_MS} at the latest;
+     *               {@code null} if the click didn't come in as a broadcast
+     * @param uri link opened by the click, {@code null} if the app was opened
+     */
+    static void record(Context context, BroadcastReceiver.PendingResult result, CountlyPushPlugin.Message message, int index, Uri uri,
+                       long deliveredAt, long clickedAt) {
+        Handler handler = result == null ? null : new Handler(Looper.getMainLooper());
+        Task task = new Task(context.getApplicationContext(), result, handler, message, index, uri, deliveredAt, clickedAt);
+        if (handler != null) {
+            handler.postDelayed(task.deadline, FINISH_DEADLINE_MS);
+        }
+        getWorker().execute(task);
+    }
+
+    private static synchronized ThreadPoolExecutor getWorker() {
+        if (worker == null) {
+            worker = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "CountlyPushClickWorker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            worker.allowCoreThreadTimeOut(true);
+        }
+        return worker;
+    }
+
+    private static class Task implements Runnable {
+        private final Context context;
+        private final BroadcastReceiver.PendingResult result;
+        private final Handler handler;
+        private final CountlyPushPlugin.Message message;
+        private final int index;
+        private final Uri uri;
+        private final long deliveredAt;
+        private final long clickedAt;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile String step = "queued";
+
+        final Runnable deadline = new Runnable() {
+            @Override
+            public void run() {
+                if (finish()) {
+                    CountlyPushPlugin.log("Click of {} still at {} after {}ms, finishing broadcast",
+                            message.getId(), step, FINISH_DEADLINE_MS, CountlyPushPlugin.LogLevel.WARNING);
+                }
+            }
+        };
+
+        Task(Context context, BroadcastReceiver.PendingResult result, Handler handler, CountlyPushPlugin.Message message, int index, Uri uri,
+             long deliveredAt, long clickedAt) {
+            this.context = context;
+            this.result = result;
+            this.handler = handler;
+            this.message = message;
+            this.index = index;
+            this.uri = uri;
+            this.deliveredAt = deliveredAt;
+            this.clickedAt = clickedAt;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            long init = 0, store = 0, bridge = 0;
+            String messageId = message.getId();
+            try {
+                step = "init";
+                PayloadStore.init(context);
+                if (!MessageStore.isInitialized()) {
+                    MessageStore.init(context);
+                }
+                init = System.nanoTime();
+
+                step = "store";
+                if (!messageId.isEmpty()) {
+                    ActionRecord record = ActionRecord.clicked(messageId, index, uri == null ? null : uri.toString(), deliveredAt, clickedAt);
+                    boolean flag = MessageStore.store(record);
+                    CountlyPushPlugin.log("StoreMessageData: {}", flag, CountlyPushPlugin.LogLevel.DEBUG);
+                    ActionForwarder.getInstance(context).flush();
+                }
+                store = System.nanoTime();
+
+                step = "bridge";
+                // Button clicks don't auto cancel
+                NotificationManager notificationManager =
+                        (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+                notificationManager.cancel(messageId, 0);
+                // Cancelling doesn't send the delete intent, release here
+                PendingIntentRegistry.getInstance(context).release(messageId);
+
+                UnityBridge.getInstance().postClicked(message.getData(), index);
+
+                PayloadStore.remove(messageId);
+                bridge = System.nanoTime();
+            } catch (Throwable t) {
+                CountlyPushPlugin.log("Click handling failed at " + step + " for message " + messageId, t, CountlyPushPlugin.LogLevel.ERROR);
+            } finally {
+                step = "done";
+                if (handler != null) {
+                    handler.removeCallbacks(deadline);
+                }
+                finish();
+                PushMetrics.clickWork.recordSince(start);
+                if (CountlyPushPlugin.isLoggable(CountlyPushPlugin.LogLevel.DEBUG)) {
+                    CountlyPushPlugin.log("Click timings for " + messageId + ": init=" + micros(start, init) + "us store=" + micros(init, store)
+                            + "us bridge=" + micros(store, bridge) + "us", CountlyPushPlugin.LogLevel.DEBUG);
+                }
+            }
+        }
+
+        /**
+         * @return {@code true} if this call finished the broadcast
+         */
+        private boolean finish() {
+            if (result == null || !finished.compareAndSet(false, true)) {
+                return false;
+            }
+            result.finish();
+            return true;
+        }
+
+        private static long micros(long from, long to) {
+            return to == 0 || from == 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(to - from);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package ly.count.unity.push_fcm;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import static ly.count.unity.push_fcm.CountlyPushPlugin.EXTRA_ACTION_INDEX;
+import static ly.count.unity.push_fcm.CountlyPushPlugin.EXTRA_DELIVERED_AT;
+import static ly.count.unity.push_fcm.CountlyPushPlugin.EXTRA_MESSAGE;
+
+/**
+ * Records clicks of notifications which open the app activity directly, without a broadcast trampoline: the message
+ * comes in the activity intent and is picked up here when the activity is created or, already running, resumed
+ * with the new intent. Also measures tap to first frame of the opened activity, for direct and broadcast routed clicks.
+ * Link clicks go to {@link NotificationClickActivity}, which records them itself, so it is skipped here.
+ *
+ * Registered at process start by {@link PushInitProvider}. {@link NotificationRenderer} only routes clicks directly
+ * when it is, as otherwise nothing would record them.
+ */
+final class ClickTracker implements Application.ActivityLifecycleCallbacks {
+    /** Set on the activity intent once its click is recorded, so resuming or recreating the activity doesn't repeat it */
+    static final String EXTRA_HANDLED = "ly.count.android.sdk.CountlyPush.handled";
+    /** Set by {@link NotificationBroadcastReceiver} to the {@link #tapTime()} it saw */
+    static final String EXTRA_ROUTED_AT = "ly.count.android.sdk.CountlyPush.routedAt";
+
+    private static volatile boolean registered;
+    private static volatile boolean activitySeen;
+
+    private ClickTracker() {
+    }
+
+    static synchronized void register(Context context) {
+        if (registered) {
+            return;
+        }
+        Context applicationContext = context.getApplicationContext();
+        if (applicationContext instanceof Application) {
+            ((Application) applicationContext).registerActivityLifecycleCallbacks(new ClickTracker());
+            registered = true;
+        }
+    }
+
+    static boolean isRegistered() {
+        return registered;
+    }
+
+    /**
+     * {@link System#nanoTime()} as close to the tap as the app can see it: process start when nothing else has
+     * happened in the process yet, so the tap must have started it, otherwise now.
+     */
+    static long tapTime() {
+        long processStart = PushMetrics.getProcessStart();
+        if (!activitySeen && processStart != 0 && !PushMetrics.hasReceived()) {
+            return processStart;
+        }
+        return System.nanoTime();
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        Intent intent = activity.getIntent();
+        if (savedInstanceState != null && intent != null) {
+            // Recreated or restored, the click was handled by the earlier instance
+            intent.putExtra(EXTRA_HANDLED, true);
+        }
+        handle(activity);
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+        // Unity activity sets new intents it gets while running as its intent
+        handle(activity);
+    }
+
+    private static void handle(Activity activity) {
+        if (activity instanceof NotificationClickActivity) {
+            return;
+        }
+        long tapAt = tapTime();
+        activitySeen = true;
+
+        Intent intent = activity.getIntent();
+        if (intent == null || intent.hasExtra(EXTRA_HANDLED) || !(intent.hasExtra(EXTRA_MESSAGE) || intent.hasExtra(EXTRA_ROUTED_AT))) {
+            return;
+        }
+        intent.putExtra(EXTRA_HANDLED, true);
+        if ((intent.getFlags() & Intent.FLAG_ACTIVITY_LAUNCHED_FROM_HISTORY) != 0) {
+            // Reopened from recents with the intent of the original click
+            return;
+        }
+
+        if (intent.hasExtra(EXTRA_ROUTED_AT)) {
+            measureFirstFrame(activity, intent.getLongExtra(EXTRA_ROUTED_AT, tapAt), PushMetrics.tapToFrameBroadcast);
+            return;
+        }
+        CountlyPushPlugin.Message message = intent.getParcelableExtra(EXTRA_MESSAGE);
+        if (message == null) {
+            return;
+        }
+        measureFirstFrame(activity, tapAt, PushMetrics.tapToFrameDirect);
+        ClickRecorder.record(activity, null, message, intent.getIntExtra(EXTRA_ACTION_INDEX, 0), null,
+                intent.getLongExtra(EXTRA_DELIVERED_AT, 0), System.currentTimeMillis());
+    }
+
+    private static void measureFirstFrame(Activity activity, final long since, final PushMetrics.Histogram histogram) {
+        final View decor = activity.getWindow().getDecorView();
+        decor.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                ViewTreeObserver observer = decor.getViewTreeObserver();
+                if (observer.isAlive()) {
+                    observer.removeOnPreDrawListener(this);
+                }
+                histogram.recordSince(since);
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+    }
+}
@@ -0,0 +1,137 @@
+package ly.count.unity.push_fcm;
+
+import android.util.Base64;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Expands {@link CountlyPushPlugin#KEY_COMPRESSED}: base64 of a gzip, zlib or raw deflate compressed flat JSON
+ * object of custom keys, {@code {"key": "value", ...}}. Numbers and booleans come out as their literal text,
+ * objects and arrays as their JSON text, the same way Unity would see them sent as plain keys.
+ *
+ * Input is inflated a chunk at a time and given up on as soon as it goes over {@link #MAX_EXPANDED_BYTES},
+ * so a small payload can't expand into something that takes the process down.
+ */
+final class CompressedPayload {
+    /** Well over anything fitting the 4 KB FCM data limit */
+    static final int MAX_ENCODED_CHARS = 8 * 1024;
+    static final int MAX_EXPANDED_BYTES = 64 * 1024;
+    static final int MAX_ENTRIES = 256;
+
+    private static final int CHUNK = 4096;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private CompressedPayload() {
+    }
+
+    /**
+     * @param encoded {@link CountlyPushPlugin#KEY_COMPRESSED} value
+     * @return expanded keys, {@code null} if the value is malformed or over the limits
+     */
+    static Map<String, String> expand(String encoded) {
+        if (encoded.length() > MAX_ENCODED_CHARS) {
+            CountlyPushPlugin.log("Compressed payload of {} chars is over the limit of {}",
+                    encoded.length(), MAX_ENCODED_CHARS, CountlyPushPlugin.LogLevel.WARNING);
+            return null;
+        }
+        try {
+            byte[] compressed = Base64.decode(encoded, Base64.DEFAULT);
+            return Reader.read(new String(inflate(compressed), UTF_8));
+        } catch (IOException | IllegalArgumentException e) {
+            CountlyPushPlugin.log("Cannot expand compressed payload", e, CountlyPushPlugin.LogLevel.WARNING);
+            return null;
+        }
+    }
+
+    static byte[] inflate(byte[] compressed) throws IOException {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(compressed);
+        Inflater inflater = null;
+        InputStream in;
+        if (compressed.length >= 2 && (compressed[0] & 0xff) == 0x1f && (compressed[1] & 0xff) == 0x8b) {
+            in = new GZIPInputStream(bytes, CHUNK);
+        } else {
+            // zlib header or raw deflate without one
+            boolean zlib = compressed.length >= 2 && (compressed[0] & 0x0f) == 8
+                    && (((compressed[0] & 0xff) << 8) | (compressed[1] & 0xff)) % 31 == 0;
+            inflater = new Inflater(!zlib);
+            in = new InflaterInputStream(bytes, inflater, CHUNK);
+        }
+
+        try {
+            byte[] out = new byte[CHUNK];
+            int size = 0;
+            while (true) {
+                if (size == out.length) {
+                    if (size > MAX_EXPANDED_BYTES) {
+                        throw new IOException("Expands to more than " + MAX_EXPANDED_BYTES + " bytes");
+                    }
+                    byte[] grown = new byte[Math.min(out.length * 2, MAX_EXPANDED_BYTES + 1)];
+                    System.arraycopy(out, 0, grown, 0, size);
+                    out = grown;
+                }
+                int read = in.read(out, size, out.length - size);
+                if (read < 0) {
+                    break;
+                }
+                size += read;
+            }
+            byte[] result = new byte[size];
+            System.arraycopy(out, 0, result, 0, size);
+            return result;
+        } finally {
+            in.close();
+            // Not ended by the stream when passed in
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    private static final class Reader extends JsonScanner {
+        private Reader(String json) {
+            super(json);
+        }
+
+        static Map<String, String> read(String json) {
+            Reader reader = new Reader(json);
+            Map<String, String> entries = new HashMap<>();
+            reader.readObject(entries);
+            return entries;
+        }
+
+        private void readObject(Map<String, String> entries) {
+            expect('{');
+            if (peek() == '}') {
+                position++;
+                return;
+            }
+            while (true) {
+                String key = readString();
+                expect(':');
+                String value = readValue();
+                if (value != null) {
+                    if (entries.size() >= MAX_ENTRIES) {
+                        throw error("More than " + MAX_ENTRIES + " entries");
+                    }
+                    entries.put(key, value);
+                }
+
+                char c = next();
+                if (c == '}') {
+                    return;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+    }
+}
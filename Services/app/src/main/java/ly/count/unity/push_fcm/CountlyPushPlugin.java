@@ -1,14 +1,12 @@
 package ly.count.unity.push_fcm;
 
 import android.app.Notification;
+import android.content.Context;
 import android.net.Uri;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -16,6 +14,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 public class CountlyPushPlugin {
     private static final String TAG = "[CountlyPluginPush]";
@@ -23,6 +22,7 @@ public class CountlyPushPlugin {
     public static final String CHANNEL_ID = "ly.count.unity.sdk.CountlyPush.CHANNEL_ID";
     public static final String EXTRA_MESSAGE = "ly.count.android.sdk.CountlyPush.message";
     public static final String EXTRA_ACTION_INDEX = "ly.count.android.sdk.CountlyPush.Action";
+    public static final String EXTRA_DELIVERED_AT = "ly.count.android.sdk.CountlyPush.deliveredAt";
 
     public static final String KEY_ID = "c.i";
     public static final String KEY_LINK = "c.l";
@@ -30,30 +30,168 @@ public class CountlyPushPlugin {
     public static final String KEY_BUTTONS = "c.b";
     public static final String KEY_BUTTONS_LINK = "l";
     public static final String KEY_BUTTONS_TITLE = "t";
+    /** "high" for transactional, "bulk" for marketing messages, see {@link PushChannel} */
+    public static final String KEY_PRIORITY = "c.pr";
+    /** Custom keys compressed to fit FCM size limits, see {@link CompressedPayload} */
+    public static final String KEY_COMPRESSED = "c.z";
+    /** Time the message expires at, milliseconds since epoch */
+    public static final String KEY_EXPIRES = "c.ex";
+    /** Time the message was sent at, milliseconds since epoch; expires {@link #KEY_TTL} seconds later */
+    public static final String KEY_SENT_AT = "c.sa";
+    public static final String KEY_TTL = "c.ttl";
 
     public static final String KEY_SOUND = "sound";
     public static final String KEY_BADGE = "badge";
     public static final String KEY_TITLE = "title";
     public static final String KEY_MESSAGE = "message";
 
-    private static boolean enableLog = true;
+    /**
+     * Keys written to parcels as their position in this array instead of the string.
+     * Positions are part of the parcel format: append new keys, never reorder or remove.
+     */
+    static final String[] PARCEL_KEYS = {KEY_ID, KEY_TITLE, KEY_MESSAGE, KEY_SOUND, KEY_BADGE, KEY_LINK, KEY_MEDIA, KEY_BUTTONS, KEY_PRIORITY};
+
+    private static final int LOG_BUFFER_CAPACITY = 256;
+    private static final LogBuffer logBuffer = new LogBuffer(LOG_BUFFER_CAPACITY);
+
+    private static volatile boolean enableLog = true;
+    private static volatile LogLevel logLevel = LogLevel.VERBOSE;
+    private static volatile LogLevel bufferLevel = LogLevel.WARNING;
+    private static volatile boolean directClickRouting = true;
+    private static volatile long bulkDelayMs = PostScheduler.BULK_DELAY_MS;
 
     public static void setEnableLog(boolean flag) {
         enableLog = flag;
         Log.d(CountlyPushPlugin.TAG, "setEnableLog: " + flag);
     }
 
-    enum LogLevel {INFO, DEBUG, VERBOSE, WARNING, ERROR}
+    /**
+     * Minimum level printed to logcat when logging is enabled.
+     *
+     * @param level one of {@link LogLevel} names
+     */
+    public static void setLogLevel(String level) {
+        logLevel = LogLevel.valueOf(level);
+    }
+
+    /**
+     * Minimum level kept in the in-memory buffer returned by {@link #dumpLog()}, independent of {@link #setEnableLog(boolean)}.
+     *
+     * @param level one of {@link LogLevel} names
+     */
+    public static void setLogBufferLevel(String level) {
+        bufferLevel = LogLevel.valueOf(level);
+    }
+
+    /**
+     * @return latest buffered log lines, oldest first
+     */
+    public static String dumpLog() {
+        return logBuffer.dump();
+    }
+
+    /**
+     * Route clicks of notifications posted from now on in this process straight to the opened activity (default),
+     * or through {@link NotificationBroadcastReceiver} as before. Meant for comparing the {@code tap_to_frame_direct}
+     * and {@code tap_to_frame_broadcast} {@link PushMetrics}; clicks go through the receiver anyway while
+     * {@link PushInitProvider} is removed from the manifest.
+     */
+    public static void setDirectClickRouting(boolean enabled) {
+        directClickRouting = enabled;
+    }
+
+    static boolean isDirectClickRouting() {
+        return directClickRouting && ClickTracker.isRegistered();
+    }
+
+    /**
+     * How long {@link PushChannel#BULK} notifications are held back so a campaign goes out as one batch,
+     * 3 seconds by default. 0 posts them as they come, like any other push.
+     */
+    public static void setBulkDelay(long ms) {
+        bulkDelayMs = Math.max(0, ms);
+    }
+
+    static long getBulkDelay() {
+        return bulkDelayMs;
+    }
+
+    /**
+     * Warm up push handling in background. {@link PushInitProvider} does this at process start,
+     * calling it again only returns the same future.
+     *
+     * @return future completed once warm-up is done
+     */
+    public static Future<Void> warmUp(Context context) {
+        return PushWarmup.start(context);
+    }
+
+    /**
+     * Ordered by severity, levels below the configured threshold are dropped before any message is built.
+     */
+    enum LogLevel {VERBOSE, DEBUG, INFO, WARNING, ERROR}
+
+    /**
+     * Cheap check for call sites which need to do work to build their message.
+     */
+    static boolean isLoggable(LogLevel level) {
+        return (enableLog && level.compareTo(logLevel) >= 0) || level.compareTo(bufferLevel) >= 0;
+    }
 
     static void log(String message, LogLevel logLevel) {
         log(message, null, logLevel);
     }
 
     static void log(String message, Throwable tr, LogLevel logLevel) {
-        if (!enableLog) {
+        if (isLoggable(logLevel)) {
+            write(message, tr, logLevel);
+        }
+    }
+
+    /**
+     * Log with {@code {}} placeholders in {@code pattern} replaced by arguments, formatted only if the level is enabled.
+     * A {@link Throwable} argument goes to {@link #log(String, Throwable, LogLevel)} instead and is logged with its stack trace.
+     */
+    static void log(String pattern, Object arg, LogLevel logLevel) {
+        if (isLoggable(logLevel)) {
+            write(format(pattern, arg, null, null, 1), null, logLevel);
+        }
+    }
+
+    static void log(String pattern, Object arg1, Object arg2, LogLevel logLevel) {
+        if (isLoggable(logLevel)) {
+            write(format(pattern, arg1, arg2, null, 2), null, logLevel);
+        }
+    }
+
+    static void log(String pattern, Object arg1, Object arg2, Object arg3, LogLevel logLevel) {
+        if (isLoggable(logLevel)) {
+            write(format(pattern, arg1, arg2, arg3, 3), null, logLevel);
+        }
+    }
+
+    static String format(String pattern, Object arg1, Object arg2, Object arg3, int count) {
+        StringBuilder builder = new StringBuilder(pattern.length() + 32);
+        int from = 0;
+        for (int i = 0; i < count; i++) {
+            int at = pattern.indexOf("{}", from);
+            if (at < 0) {
+                break;
+            }
+            builder.append(pattern, from, at).append(i == 0 ? arg1 : i == 1 ? arg2 : arg3);
+            from = at + 2;
+        }
+        return builder.append(pattern, from, pattern.length()).toString();
+    }
+
+    private static void write(String message, Throwable tr, LogLevel level) {
+        if (level.compareTo(bufferLevel) >= 0) {
+            logBuffer.add(level, message, tr);
+        }
+        if (!enableLog || level.compareTo(logLevel) < 0) {
             return;
         }
-        switch (logLevel) {
+        switch (level) {
             case INFO:
                 Log.i(TAG, message, tr);
                 break;
@@ -87,13 +225,28 @@ public class CountlyPushPlugin {
      * Message object encapsulating data in {@code RemoteMessage} sent from Countly server.
      */
     static class Message implements Parcelable {
+        private static final int PARCEL_MAGIC = 0x434C5950; // "CLYP", tells compact format from legacy writeMap
+        private static final byte PARCEL_VERSION = 1;
+        private static final byte CUSTOM_INLINE = 0;
+        private static final byte CUSTOM_REFERENCE = 1;
+        /** Custom payloads bigger than this many chars go to {@link PayloadStore} instead of every intent */
+        private static final int CUSTOM_INLINE_LIMIT = 512;
+
         final String id;
         private final String title, message, sound;
-        private final Integer badge;
-        private final Uri link;
-        private final URL media;
-        private final List<Button> buttons;
-        private final Map<String, String> data;
+        // Replaced by data() with a new, fully built map, never modified; volatile for the unsynchronized
+        // known key reads, which both the compact and the full map answer the same
+        private volatile Map<String, String> data;
+        // Custom payload is in PayloadStore and not loaded into data yet
+        private boolean payloadPending;
+        private boolean payloadStored;
+
+        // Parsed from data on first access only, most messages never need all of them
+        private Integer badge;
+        private Uri link;
+        private URL media;
+        private List<Button> buttons;
+        private boolean badgeParsed, linkParsed, mediaParsed;
 
         private Message(Map<String, String> data) {
             this.data = data;
@@ -102,58 +255,103 @@ public class CountlyPushPlugin {
             this.message = data.get(KEY_MESSAGE);
             this.sound = data.get(KEY_SOUND);
 
-            Log.d(CountlyPushPlugin.TAG, "constructed: " + id);
-            Integer b = null;
-            try {
-                b = data.containsKey(KEY_BADGE) ? Integer.parseInt(data.get(KEY_BADGE)) : null;
-            } catch (NumberFormatException e) {
-                Log.w(CountlyPushPlugin.TAG, "Bad badge value received, ignoring");
+            log("constructed: {}", id, LogLevel.VERBOSE);
+        }
+
+        private Message(Map<String, String> data, boolean payloadPending) {
+            this(data);
+            this.payloadPending = payloadPending;
+            this.payloadStored = payloadPending;
+        }
+
+        /**
+         * Full data map, loading custom payload from {@link PayloadStore} if this message was unparceled by reference
+         * and expanding {@link #KEY_COMPRESSED} into it.
+         */
+        private synchronized Map<String, String> data() {
+            Map<String, String> full = data;
+            if (payloadPending) {
+                payloadPending = false;
+                Map<String, String> payload = PayloadStore.get(id);
+                if (payload != null) {
+                    full = new HashMap<>(full);
+                    full.putAll(payload);
+                } else {
+                    log("Custom payload of {} is no longer available", id, LogLevel.WARNING);
+                }
             }
-            this.badge = b;
+            // Also comes in with the payload loaded above, gone from data once expanded
+            if (full.containsKey(KEY_COMPRESSED)) {
+                full = expandCompressed(full);
+            }
+            data = full;
+            return full;
+        }
 
-            Uri uri = null;
-            if (data.get(KEY_LINK) != null) {
-                try {
-                    uri = Uri.parse(data.get(KEY_LINK));
-                } catch (Throwable e) {
-                    Log.w(CountlyPushPlugin.TAG, "Cannot parse message link", e);
+        /**
+         * @return {@code data} without {@link #KEY_COMPRESSED} and with the keys it holds, except for the ones
+         * {@code data} already has and {@link #PARCEL_KEYS}, which are read before expanding
+         */
+        private Map<String, String> expandCompressed(Map<String, String> data) {
+            Map<String, String> merged = new HashMap<>(data);
+            Map<String, String> expanded = CompressedPayload.expand(merged.remove(KEY_COMPRESSED));
+            if (expanded == null) {
+                PushMetrics.badPayload.increment();
+                return merged;
+            }
+            for (Map.Entry<String, String> entry : expanded.entrySet()) {
+                if (!merged.containsKey(entry.getKey()) && !isParcelKey(entry.getKey())) {
+                    merged.put(entry.getKey(), entry.getValue());
                 }
             }
-            this.link = uri;
+            log("expanded {} keys of {}", expanded.size(), id, LogLevel.VERBOSE);
+            return merged;
+        }
 
-            URL u = null;
-            try {
-                u = data.containsKey(KEY_MEDIA) ? new URL(data.get(KEY_MEDIA)) : null;
-            } catch (MalformedURLException e) {
-                Log.w(CountlyPushPlugin.TAG, "Bad media value received, ignoring");
+        /**
+         * Expiry straight from {@code RemoteMessage#getData()}, without decoding the message: the earlier of
+         * {@link #KEY_EXPIRES} and {@link #KEY_SENT_AT} plus {@link #KEY_TTL}. Malformed values are ignored.
+         *
+         * @return expiry time in milliseconds since epoch, {@code 0} if the message doesn't expire
+         */
+        static long peekExpiry(Map<String, String> data) {
+            long expires = parseTime(data.get(KEY_EXPIRES));
+            long sentAt = parseTime(data.get(KEY_SENT_AT));
+            long ttl = parseTime(data.get(KEY_TTL));
+            if (sentAt > 0 && ttl > 0) {
+                long expiresAfterTtl = ttl > (Long.MAX_VALUE - sentAt) / 1000 ? Long.MAX_VALUE : sentAt + ttl * 1000;
+                expires = expires > 0 ? Math.min(expires, expiresAfterTtl) : expiresAfterTtl;
             }
-            this.media = u;
+            return expires;
+        }
 
-            this.buttons = new ArrayList<>();
+        /**
+         * @return {@code true} if {@code data} is of a message which expired before {@code now}
+         */
+        static boolean isExpired(Map<String, String> data, long now) {
+            long expires = peekExpiry(data);
+            return expires > 0 && expires <= now;
+        }
 
-            String json = data.get(KEY_BUTTONS);
-            if (json != null) {
-                try {
-                    JSONArray array = new JSONArray(json);
-                    for (int i = 0; i < array.length(); i++) {
-                        JSONObject btn = array.getJSONObject(i);
-                        if (btn.has(KEY_BUTTONS_TITLE) && btn.has(KEY_BUTTONS_LINK)) {
-                            uri = null;
-                            if (btn.getString(KEY_BUTTONS_LINK) != null) {
-                                try {
-                                    uri = Uri.parse(btn.getString(KEY_BUTTONS_LINK));
-                                } catch (Throwable e) {
-                                    Log.w(CountlyPushPlugin.TAG, "Cannot parse message link", e);
-                                }
-                            }
-
-                            this.buttons.add(new Button(this, i + 1, btn.getString(KEY_BUTTONS_TITLE), uri));
-                        }
-                    }
-                } catch (Throwable e) {
-                    Log.w(CountlyPushPlugin.TAG, "Failed to parse buttons JSON", e);
+        private static long parseTime(String value) {
+            if (value == null) {
+                return 0;
+            }
+            try {
+                return Math.max(Long.parseLong(value), 0);
+            } catch (NumberFormatException e) {
+                log("Bad expiry value {}, ignoring", value, LogLevel.WARNING);
+                return 0;
+            }
+        }
+
+        private static boolean isParcelKey(String key) {
+            for (String parcelKey : PARCEL_KEYS) {
+                if (parcelKey.equals(key)) {
+                    return true;
                 }
             }
+            return false;
         }
 
         /**
@@ -198,7 +396,16 @@ public class CountlyPushPlugin {
          *
          * @return message badge number or {@code null} if no badge specified
          */
-        public Integer getBadge() {
+        public synchronized Integer getBadge() {
+            if (!badgeParsed) {
+                badgeParsed = true;
+                try {
+                    badge = data.containsKey(KEY_BADGE) ? Integer.parseInt(data.get(KEY_BADGE)) : null;
+                } catch (NumberFormatException e) {
+                    PushMetrics.badBadge.increment();
+                    log("Bad badge value received, ignoring", LogLevel.WARNING);
+                }
+            }
             return badge;
         }
 
@@ -207,7 +414,11 @@ public class CountlyPushPlugin {
          *
          * @return message link Uri or {@code null} if no link specified
          */
-        public Uri getLink() {
+        public synchronized Uri getLink() {
+            if (!linkParsed) {
+                linkParsed = true;
+                link = parseLink(data.get(KEY_LINK));
+            }
             return link;
         }
 
@@ -216,26 +427,74 @@ public class CountlyPushPlugin {
          *
          * @return message media URL or {@code null} if no media specified
          */
-        public URL getMedia() {
+        public synchronized URL getMedia() {
+            if (!mediaParsed) {
+                mediaParsed = true;
+                try {
+                    media = data.containsKey(KEY_MEDIA) ? new URL(data.get(KEY_MEDIA)) : null;
+                } catch (MalformedURLException e) {
+                    PushMetrics.badMedia.increment();
+                    log("Bad media value received, ignoring", LogLevel.WARNING);
+                }
+            }
             return media;
         }
 
+        /**
+         * Time this message expires at
+         *
+         * @return milliseconds since epoch, {@code 0} if the message doesn't expire
+         */
+        synchronized long getExpiresAt() {
+            return peekExpiry(data);
+        }
+
+        /**
+         * Channel this message is routed to
+         *
+         * @return channel from {@link #KEY_PRIORITY}, {@link PushChannel#DEFAULT} if not specified
+         */
+        PushChannel getChannel() {
+            return PushChannel.forValue(data.get(KEY_PRIORITY));
+        }
+
         /**
          * List of buttons to display along this message if any
          *
          * @return message buttons list or empty list if no buttons specified
          */
-        public List<Button> getButtons() {
+        public synchronized List<Button> getButtons() {
+            if (buttons == null) {
+                List<ButtonsParser.Entry> entries = ButtonsParser.parse(data.get(KEY_BUTTONS));
+                List<Button> parsed = new ArrayList<>(entries.size());
+                for (ButtonsParser.Entry entry : entries) {
+                    parsed.add(new Button(this, entry.index, entry.title, parseLink(entry.link)));
+                }
+                buttons = parsed;
+            }
             return buttons;
         }
 
+        private static Uri parseLink(String link) {
+            if (link == null) {
+                return null;
+            }
+            try {
+                return Uri.parse(link);
+            } catch (Throwable e) {
+                PushMetrics.badLink.increment();
+                log("Cannot parse message link", e, LogLevel.WARNING);
+                return null;
+            }
+        }
+
         /**
          * Set of data keys sent in this message, includes all standard keys like "title" or "message"
          *
          * @return message data keys set
          */
         public Set<String> getDataKeys() {
-            return data.keySet();
+            return data().keySet();
         }
 
         /**
@@ -245,7 +504,7 @@ public class CountlyPushPlugin {
          * @return {@code true} if key exists in the data, {@code false} otherwise
          */
         public boolean has(String key) {
-            return data.containsKey(key);
+            return isParcelKey(key) ? data.containsKey(key) : data().containsKey(key);
         }
 
         /**
@@ -255,15 +514,22 @@ public class CountlyPushPlugin {
          * @return value String for the key or {@code null} if no such key exists in the data
          */
         public String getData(String key) {
-            return data.get(key);
+            return isParcelKey(key) ? data.get(key) : data().get(key);
         }
 
         public int hashCode() {
             return id.hashCode();
         }
 
+        /**
+         * Hash of message content as received, without loading or expanding anything.
+         */
+        synchronized int contentHash() {
+            return data.hashCode();
+        }
+
         public Map<String, String> getData() {
-            return data;
+            return data();
         }
 
         @Override
@@ -271,19 +537,93 @@ public class CountlyPushPlugin {
             return id.hashCode();
         }
 
+        /**
+         * Compact format: magic and version, known keys as their {@link #PARCEL_KEYS} position,
+         * then custom keys either inline or as a reference to {@link PayloadStore} when they are large.
+         * Each button intent carries a copy of this, so keeping it small keeps binder transactions small.
+         */
         @Override
-        public void writeToParcel(Parcel dest, int flags) {
-            dest.writeMap(data);
-            Log.d(CountlyPushPlugin.TAG, "written: " + data.get(KEY_ID));
+        public synchronized void writeToParcel(Parcel dest, int flags) {
+            dest.writeInt(PARCEL_MAGIC);
+            dest.writeByte(PARCEL_VERSION);
+
+            int known = 0;
+            for (String key : PARCEL_KEYS) {
+                if (data.get(key) != null) {
+                    known++;
+                }
+            }
+            dest.writeInt(known);
+            for (int i = 0; i < PARCEL_KEYS.length; i++) {
+                String value = data.get(PARCEL_KEYS[i]);
+                if (value != null) {
+                    dest.writeByte((byte) i);
+                    dest.writeString(value);
+                }
+            }
+
+            if (payloadPending) {
+                dest.writeByte(CUSTOM_REFERENCE);
+                return;
+            }
+
+            Map<String, String> custom = new HashMap<>();
+            int customSize = 0;
+            for (Map.Entry<String, String> entry : data.entrySet()) {
+                if (!isParcelKey(entry.getKey())) {
+                    custom.put(entry.getKey(), entry.getValue());
+                    customSize += entry.getKey().length() + (entry.getValue() == null ? 0 : entry.getValue().length());
+                }
+            }
+
+            if (customSize > CUSTOM_INLINE_LIMIT && (payloadStored || (payloadStored = PayloadStore.put(id, custom)))) {
+                dest.writeByte(CUSTOM_REFERENCE);
+            } else {
+                dest.writeByte(CUSTOM_INLINE);
+                dest.writeInt(custom.size());
+                for (Map.Entry<String, String> entry : custom.entrySet()) {
+                    dest.writeString(entry.getKey());
+                    dest.writeString(entry.getValue());
+                }
+            }
+            log("written: {}", id, LogLevel.VERBOSE);
         }
 
         public static final Parcelable.Creator<Message> CREATOR = new Parcelable.Creator<Message>() {
 
             public Message createFromParcel(Parcel in) {
+                int start = in.dataPosition();
+                if (in.readInt() != PARCEL_MAGIC) {
+                    // Intent created by a plugin version that used writeMap
+                    in.setDataPosition(start);
+                    Map<String, String> map = new HashMap<>();
+                    in.readMap(map, ClassLoader.getSystemClassLoader());
+                    log("read legacy: {}", map.get(KEY_ID), LogLevel.VERBOSE);
+                    return new Message(map);
+                }
+                in.readByte();
+
                 Map<String, String> map = new HashMap<>();
-                in.readMap(map, ClassLoader.getSystemClassLoader());
-                Log.d(CountlyPushPlugin.TAG, "read: " + map.get(KEY_ID));
-                return new Message(map);
+                int known = in.readInt();
+                for (int i = 0; i < known; i++) {
+                    int index = in.readByte();
+                    String value = in.readString();
+                    if (index >= 0 && index < PARCEL_KEYS.length) {
+                        map.put(PARCEL_KEYS[index], value);
+                    }
+                }
+
+                boolean payloadPending = false;
+                if (in.readByte() == CUSTOM_REFERENCE) {
+                    payloadPending = true;
+                } else {
+                    int custom = in.readInt();
+                    for (int i = 0; i < custom; i++) {
+                        map.put(in.readString(), in.readString());
+                    }
+                }
+                log("read: {}", map.get(KEY_ID), LogLevel.VERBOSE);
+                return new Message(map, payloadPending);
             }
 
             public Message[] newArray(int size) {
@@ -0,0 +1,274 @@
+package ly.count.unity.push_fcm;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Remembers ids of the latest {@link #DEFAULT_CAPACITY} messages posted within {@link #DEFAULT_WINDOW_MS}
+ * so that FCM redeliveries can be dropped before any decoding. Ids are kept as 64-bit hashes in a ring,
+ * indexed by an open addressing table; memory is fixed at construction no matter how many ids pass through.
+ * Two ids sharing a hash would make the second one look like a duplicate, which is negligible at this size.
+ *
+ * The ring is mirrored to a file of fixed size ({@code [magic][capacity][head]} followed by
+ * {@code [long hash][long time]} slots), one slot written per new id, so the index survives process death.
+ */
+class DedupIndex {
+    static final int DEFAULT_CAPACITY = 1024;
+    static final long DEFAULT_WINDOW_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final String FILE_NAME = "countly_push_dedup";
+    private static final int MAGIC = 0x434C5944; // "CLYD"
+    private static final int HEADER_SIZE = 4 + 4 + 4;
+    private static final int HEAD_POSITION = 8;
+    private static final int SLOT_SIZE = 8 + 8;
+
+    private static DedupIndex instance;
+
+    private final long windowMs;
+    private final long[] hashes;
+    private final long[] times;
+    // Ring position + 1 of each id, 0 marks a free slot
+    private final int[] table;
+    private final int mask;
+    private int head;
+    private int size;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private final ByteBuffer slotBuffer = ByteBuffer.allocate(SLOT_SIZE);
+    private final ByteBuffer headBuffer = ByteBuffer.allocate(4);
+
+    static synchronized DedupIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new DedupIndex(new File(context.getFilesDir(), FILE_NAME), DEFAULT_CAPACITY, DEFAULT_WINDOW_MS);
+        }
+        return instance;
+    }
+
+    /**
+     * @param file file to persist to or {@code null} to keep the index in memory only
+     */
+    DedupIndex(File file, int capacity, long windowMs) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.windowMs = windowMs;
+        this.hashes = new long[capacity];
+        this.times = new long[capacity];
+
+        int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        this.table = new int[tableSize];
+        this.mask = tableSize - 1;
+
+        if (file != null) {
+            try {
+                open(file);
+            } catch (IOException e) {
+                CountlyPushPlugin.log("Cannot open dedup index, keeping it in memory only", e, CountlyPushPlugin.LogLevel.WARNING);
+                closeQuietly();
+            }
+        }
+    }
+
+    /**
+     * Check without recording: ids are only marked once their message is posted, see {@link #markSeen(String, long)}.
+     *
+     * @return {@code true} if the id was seen within the window
+     */
+    synchronized boolean isSeen(String messageId, long now) {
+        int slot = find(hash(messageId));
+        return slot >= 0 && now - times[table[slot] - 1] < windowMs;
+    }
+
+    /**
+     * Record message id as seen.
+     *
+     * @return {@code true} if the id is new, {@code false} if it was already seen within the window
+     */
+    synchronized boolean markSeen(String messageId, long now) {
+        long hash = hash(messageId);
+        int slot = find(hash);
+        if (slot >= 0) {
+            int position = table[slot] - 1;
+            if (now - times[position] < windowMs) {
+                return false;
+            }
+            // Seen too long ago to be a redelivery, forget the old sighting and count it as new
+            delete(slot);
+            hashes[position] = 0;
+            size--;
+        }
+
+        if (hashes[head] != 0) {
+            delete(find(hashes[head]));
+            size--;
+        }
+        hashes[head] = hash;
+        times[head] = now;
+        insert(hash, head);
+        size++;
+        persist(head);
+        head = (head + 1) % hashes.length;
+        return true;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    int capacity() {
+        return hashes.length;
+    }
+
+    synchronized void close() {
+        closeQuietly();
+    }
+
+    private void open(File file) throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+
+        int capacity = hashes.length;
+        ByteBuffer data = ByteBuffer.allocate(HEADER_SIZE + capacity * SLOT_SIZE);
+        if (channel.size() != data.capacity()) {
+            reset();
+            return;
+        }
+        while (data.hasRemaining() && channel.read(data, data.position()) >= 0) {
+            // keep reading until the whole file is in
+        }
+        data.flip();
+        if (data.remaining() != data.capacity() || data.getInt() != MAGIC || data.getInt() != capacity) {
+            reset();
+            return;
+        }
+        int storedHead = data.getInt();
+        if (storedHead < 0 || storedHead >= capacity) {
+            reset();
+            return;
+        }
+
+        // Oldest slot first, so that an id stored twice ends up at its latest position
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < capacity; i++) {
+            int position = (storedHead + i) % capacity;
+            data.position(HEADER_SIZE + position * SLOT_SIZE);
+            long hash = data.getLong();
+            long time = data.getLong();
+            if (hash == 0 || now - time >= windowMs) {
+                continue;
+            }
+            int slot = find(hash);
+            if (slot >= 0) {
+                hashes[table[slot] - 1] = 0;
+                delete(slot);
+                size--;
+            }
+            hashes[position] = hash;
+            times[position] = time;
+            insert(hash, position);
+            size++;
+        }
+        head = storedHead;
+    }
+
+    private void reset() throws IOException {
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + hashes.length * SLOT_SIZE);
+        header.putInt(MAGIC).putInt(hashes.length).putInt(0);
+        header.rewind();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    private void persist(int position) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            slotBuffer.clear();
+            slotBuffer.putLong(hashes[position]).putLong(times[position]).flip();
+            channel.write(slotBuffer, HEADER_SIZE + (long) position * SLOT_SIZE);
+
+            headBuffer.clear();
+            headBuffer.putInt((position + 1) % hashes.length).flip();
+            channel.write(headBuffer, HEAD_POSITION);
+        } catch (IOException e) {
+            CountlyPushPlugin.log("Cannot persist dedup index, keeping it in memory only", e, CountlyPushPlugin.LogLevel.WARNING);
+            closeQuietly();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (raf != null) {
+                raf.close();
+            }
+        } catch (IOException ignored) {
+        }
+        raf = null;
+        channel = null;
+    }
+
+    private int find(long hash) {
+        int i = index(hash);
+        while (table[i] != 0) {
+            if (hashes[table[i] - 1] == hash) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insert(long hash, int position) {
+        int i = index(hash);
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = position + 1;
+    }
+
+    /**
+     * Linear probing removal: shift following entries back so lookups never stop at a hole early.
+     */
+    private void delete(int slot) {
+        int hole = slot;
+        table[hole] = 0;
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            if (table[i] == 0) {
+                return;
+            }
+            int home = index(hashes[table[i] - 1]);
+            boolean reachable = hole <= i ? (home > hole && home <= i) : (home > hole || home <= i);
+            if (!reachable) {
+                table[hole] = table[i];
+                table[i] = 0;
+                hole = i;
+            }
+        }
+    }
+
+    private int index(long hash) {
+        return (int) ((hash * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    /**
+     * 64-bit FNV-1a over UTF-16 chars, never 0 since that marks an empty ring slot.
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+}
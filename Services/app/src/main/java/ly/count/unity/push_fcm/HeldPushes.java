@@ -0,0 +1,81 @@
+package ly.count.unity.push_fcm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps data of {@link PushChannel#BULK} pushes on disk from receipt until their notification is posted.
+ * FCM considers a push delivered once it's handed over, so without this a process dying while
+ * {@link PostScheduler} holds a campaign back would lose it. Entries older than {@link #MAX_AGE_MS} are not restored.
+ */
+class HeldPushes {
+    static final String DIRECTORY = "countly_push_held";
+    private static final long MAX_AGE_MS = 24L * 60 * 60 * 1000;
+
+    private final File directory;
+
+    HeldPushes(File directory) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            CountlyPushPlugin.log("Cannot create held pushes directory " + directory, CountlyPushPlugin.LogLevel.WARNING);
+        }
+        this.directory = directory;
+    }
+
+    synchronized void hold(String messageId, Map<String, String> data) {
+        try {
+            PayloadStore.writeMap(fileFor(messageId), data);
+        } catch (IOException e) {
+            CountlyPushPlugin.log("Cannot hold push " + messageId, e, CountlyPushPlugin.LogLevel.WARNING);
+        }
+    }
+
+    synchronized void release(String messageId) {
+        fileFor(messageId).delete();
+    }
+
+    /**
+     * Take out pushes held when the process last ended, oldest first.
+     *
+     * @return data of each push, removed from disk
+     */
+    synchronized List<Map<String, String>> restore(long now) {
+        List<Map<String, String>> pushes = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return pushes;
+        }
+        List<File> held = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp") || now - file.lastModified() > MAX_AGE_MS) {
+                file.delete();
+            } else {
+                held.add(file);
+            }
+        }
+        Collections.sort(held, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+        for (File file : held) {
+            try {
+                pushes.add(PayloadStore.readMap(file));
+            } catch (IOException e) {
+                CountlyPushPlugin.log("Cannot restore held push " + file.getName(), e, CountlyPushPlugin.LogLevel.WARNING);
+            }
+            file.delete();
+        }
+        return pushes;
+    }
+
+    private File fileFor(String messageId) {
+        return new File(directory, MediaDiskCache.key(messageId));
+    }
+}
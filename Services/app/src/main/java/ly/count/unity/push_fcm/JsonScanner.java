@@ -0,0 +1,206 @@
+package ly.count.unity.push_fcm;
+
+/**
+ * Minimal JSON scanning over a string for the single pass readers of push payloads: reads the parts a reader
+ * is after and skips the rest without building a JSON object tree. Errors are {@link IllegalArgumentException}s
+ * with the position they happened at.
+ */
+class JsonScanner {
+    final String json;
+    int position;
+
+    JsonScanner(String json) {
+        this.json = json;
+    }
+
+    /**
+     * String value as is, numbers and booleans as their literal text, {@code null} for JSON null
+     * and for objects or arrays.
+     */
+    String readScalar() {
+        char c = peek();
+        if (c == '"') {
+            return readString();
+        }
+        if (c == '{' || c == '[') {
+            skipValue();
+            return null;
+        }
+        int start = position;
+        skipLiteral();
+        String literal = json.substring(start, position);
+        return "null".equals(literal) ? null : literal;
+    }
+
+    /**
+     * Like {@link #readScalar()}, but objects and arrays come as their JSON text.
+     */
+    String readValue() {
+        char c = peek();
+        if (c == '{' || c == '[') {
+            int start = position;
+            skipValue();
+            return json.substring(start, position);
+        }
+        return readScalar();
+    }
+
+    void skipValue() {
+        char c = peek();
+        switch (c) {
+            case '"':
+                skipString();
+                break;
+            case '{':
+            case '[':
+                skipContainer();
+                break;
+            default:
+                skipLiteral();
+        }
+    }
+
+    private void skipContainer() {
+        int depth = 0;
+        do {
+            char c = next();
+            if (c == '"') {
+                position--;
+                skipString();
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+        } while (depth > 0);
+    }
+
+    private void skipLiteral() {
+        skipWhitespace();
+        int start = position;
+        while (position < json.length()) {
+            char c = json.charAt(position);
+            if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+                break;
+            }
+            position++;
+        }
+        if (position == start) {
+            throw error("Expected value");
+        }
+    }
+
+    private void skipString() {
+        expect('"');
+        while (true) {
+            if (position >= json.length()) {
+                throw error("Unterminated string");
+            }
+            char c = json.charAt(position++);
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                position++;
+            }
+        }
+    }
+
+    String readString() {
+        expect('"');
+        int start = position;
+        // Fast path: no escapes, substring straight from the input
+        while (position < json.length()) {
+            char c = json.charAt(position);
+            if (c == '"') {
+                return json.substring(start, position++);
+            }
+            if (c == '\\') {
+                break;
+            }
+            position++;
+        }
+
+        StringBuilder builder = new StringBuilder(position - start + 16);
+        builder.append(json, start, position);
+        while (true) {
+            if (position >= json.length()) {
+                throw error("Unterminated string");
+            }
+            char c = json.charAt(position++);
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if (position >= json.length()) {
+                throw error("Unterminated escape");
+            }
+            char escaped = json.charAt(position++);
+            switch (escaped) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (position + 4 > json.length()) {
+                        throw error("Bad unicode escape");
+                    }
+                    try {
+                        builder.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Bad unicode escape");
+                    }
+                    position += 4;
+                    break;
+                default:
+                    builder.append(escaped);
+            }
+        }
+    }
+
+    void expect(char expected) {
+        if (next() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+    }
+
+    char next() {
+        skipWhitespace();
+        if (position >= json.length()) {
+            throw error("Unexpected end");
+        }
+        return json.charAt(position++);
+    }
+
+    char peek() {
+        skipWhitespace();
+        if (position >= json.length()) {
+            throw error("Unexpected end");
+        }
+        return json.charAt(position);
+    }
+
+    private void skipWhitespace() {
+        while (position < json.length() && Character.isWhitespace(json.charAt(position))) {
+            position++;
+        }
+    }
+
+    IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at " + position);
+    }
+}
@@ -0,0 +1,79 @@
+package ly.count.unity.push_fcm;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Fixed size in-memory ring of the latest log lines, kept regardless of whether console logging is enabled
+ * so that a production build can still dump what happened before a problem. Slots are preallocated arrays,
+ * adding a line only stores references.
+ */
+final class LogBuffer {
+    private final long[] times;
+    private final CountlyPushPlugin.LogLevel[] levels;
+    private final String[] messages;
+    private final Throwable[] errors;
+    private int next;
+    private int size;
+
+    LogBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        times = new long[capacity];
+        levels = new CountlyPushPlugin.LogLevel[capacity];
+        messages = new String[capacity];
+        errors = new Throwable[capacity];
+    }
+
+    synchronized void add(CountlyPushPlugin.LogLevel level, String message, Throwable tr) {
+        times[next] = System.currentTimeMillis();
+        levels[next] = level;
+        messages[next] = message;
+        errors[next] = tr;
+        next = (next + 1) % times.length;
+        if (size < times.length) {
+            size++;
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized void clear() {
+        for (int i = 0; i < times.length; i++) {
+            messages[i] = null;
+            errors[i] = null;
+            levels[i] = null;
+        }
+        next = 0;
+        size = 0;
+    }
+
+    /**
+     * @return buffered lines from oldest to newest, one per line with stack traces following their line
+     */
+    synchronized String dump() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        int first = (next - size + times.length) % times.length;
+        for (int i = 0; i < size; i++) {
+            int slot = (first + i) % times.length;
+            writer.print(format.format(new Date(times[slot])));
+            writer.print(' ');
+            writer.print(levels[slot].name().charAt(0));
+            writer.print(' ');
+            writer.println(messages[slot]);
+            if (errors[slot] != null) {
+                errors[slot].printStackTrace(writer);
+            }
+        }
+        writer.flush();
+        return out.toString();
+    }
+}
@@ -0,0 +1,127 @@
+package ly.count.unity.push_fcm;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU of downloaded media files keyed by URL. Least recently used files
+ * are deleted once the total size goes over the budget. Recency survives restarts
+ * through file modification time.
+ */
+class MediaDiskCache {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, File> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private int tempCounter;
+
+    MediaDiskCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            CountlyPushPlugin.log("Cannot create media cache directory " + directory, CountlyPushPlugin.LogLevel.WARNING);
+        }
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    long diff = a.lastModified() - b.lastModified();
+                    return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+                }
+            });
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_SUFFIX)) {
+                    file.delete();
+                    continue;
+                }
+                entries.put(file.getName(), file);
+                size += file.length();
+            }
+        }
+    }
+
+    /**
+     * @return cached file for the URL or {@code null} if it isn't cached
+     */
+    synchronized File get(String url) {
+        File file = entries.get(key(url));
+        if (file == null) {
+            return null;
+        }
+        if (!file.exists()) {
+            entries.remove(file.getName());
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * @return fresh file in cache directory to download into before {@link #commit(String, File)}
+     */
+    synchronized File newTempFile() {
+        return new File(directory, System.nanoTime() + "-" + (tempCounter++) + TEMP_SUFFIX);
+    }
+
+    /**
+     * Move downloaded {@code temp} file into the cache under {@code url}, evicting old entries if needed.
+     *
+     * @return cached file
+     */
+    synchronized File commit(String url, File temp) throws IOException {
+        String key = key(url);
+        File file = new File(directory, key);
+        File previous = entries.remove(key);
+        if (previous != null) {
+            size -= previous.length();
+        }
+        if (file.exists() && !file.delete() || !temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot move media into cache: " + file);
+        }
+
+        entries.put(key, file);
+        size += file.length();
+        trim();
+        return file;
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, File>> iterator = entries.entrySet().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+            File eldest = iterator.next().getValue();
+            size -= eldest.length();
+            eldest.delete();
+            iterator.remove();
+        }
+    }
+
+    static String key(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package ly.count.unity.push_fcm;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Streams media files from network straight to disk, never holding the whole body in memory.
+ * Gives up when the server is slow or the file is bigger than allowed.
+ */
+class MediaDownloader {
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final long maxBytes;
+
+    MediaDownloader(int connectTimeoutMs, int readTimeoutMs, long maxBytes) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Download {@code url} into {@code destination}. Partial files are deleted on failure.
+     *
+     * @return {@code true} if the whole body was written
+     */
+    boolean download(URL url, File destination) {
+        HttpURLConnection connection = null;
+        OutputStream out = null;
+        boolean success = false;
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(connectTimeoutMs);
+            connection.setReadTimeout(readTimeoutMs);
+            connection.setInstanceFollowRedirects(true);
+            connection.setUseCaches(false);
+
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                CountlyPushPlugin.log("Media download failed with HTTP " + code + " for " + url, CountlyPushPlugin.LogLevel.WARNING);
+                return false;
+            }
+
+            long declared = connection.getContentLength();
+            if (declared > maxBytes) {
+                CountlyPushPlugin.log("Media too large (" + declared + " bytes), skipping " + url, CountlyPushPlugin.LogLevel.WARNING);
+                return false;
+            }
+
+            InputStream in = new BufferedInputStream(connection.getInputStream(), BUFFER_SIZE);
+            out = new FileOutputStream(destination);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+                if (total > maxBytes) {
+                    CountlyPushPlugin.log("Media exceeded " + maxBytes + " bytes while downloading, skipping " + url, CountlyPushPlugin.LogLevel.WARNING);
+                    return false;
+                }
+                out.write(buffer, 0, read);
+            }
+            in.close();
+            out.close();
+            out = null;
+            success = true;
+            return true;
+        } catch (IOException | ClassCastException e) {
+            CountlyPushPlugin.log("Media download failed for " + url, e, CountlyPushPlugin.LogLevel.WARNING);
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (connection != null) {
+                connection.disconnect();
+            }
+            if (!success && destination.exists() && !destination.delete()) {
+                CountlyPushPlugin.log("Cannot delete partial media file " + destination, CountlyPushPlugin.LogLevel.WARNING);
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package ly.count.unity.push_fcm;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.DisplayMetrics;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Fetches {@code c.m} media for big picture notifications. Decoded bitmaps are kept in a memory LRU
+ * and downloaded files in a disk LRU, both keyed by URL, so an image shared by many campaign messages
+ * is downloaded and decoded once.
+ */
+class MediaLoader {
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 10000;
+    private static final long MAX_DOWNLOAD_BYTES = 5 * 1024 * 1024;
+    private static final long MAX_DISK_CACHE_BYTES = 20 * 1024 * 1024;
+    private static final String CACHE_DIRECTORY = "countly_push_media";
+    private static final int LOCK_STRIPES = 8;
+
+    private static MediaLoader instance;
+
+    private final MediaDownloader downloader;
+    private final MediaDiskCache diskCache;
+    private final LruCache<String, Bitmap> memoryCache;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final int targetWidth, targetHeight;
+
+    static synchronized MediaLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new MediaLoader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MediaLoader(Context context) {
+        downloader = new MediaDownloader(CONNECT_TIMEOUT_MS, READ_TIMEOUT_MS, MAX_DOWNLOAD_BYTES);
+        diskCache = new MediaDiskCache(new File(context.getCacheDir(), CACHE_DIRECTORY), MAX_DISK_CACHE_BYTES);
+
+        int memoryBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 16);
+        memoryCache = new LruCache<String, Bitmap>(memoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+
+        // Big picture is shown at full notification width with roughly 2:1 aspect ratio
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        targetWidth = Math.min(metrics.widthPixels, metrics.heightPixels);
+        targetHeight = targetWidth / 2;
+    }
+
+    /**
+     * Get bitmap for media URL, downloading and decoding it if it isn't cached yet.
+     * Blocks the calling thread, must not be called on the main thread.
+     *
+     * @return bitmap downsampled to notification size or {@code null} if it cannot be loaded
+     */
+    Bitmap load(URL media) {
+        String url = media.toString();
+        Bitmap bitmap = memoryCache.get(url);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        // Same URL arriving in several messages at once is fetched by one worker while others wait for it
+        synchronized (locks[(url.hashCode() & 0x7FFFFFFF) % LOCK_STRIPES]) {
+            bitmap = memoryCache.get(url);
+            if (bitmap != null) {
+                return bitmap;
+            }
+
+            File file = diskCache.get(url);
+            if (file == null) {
+                File temp = diskCache.newTempFile();
+                if (!downloader.download(media, temp)) {
+                    return null;
+                }
+                try {
+                    file = diskCache.commit(url, temp);
+                } catch (IOException e) {
+                    CountlyPushPlugin.log("Cannot cache media " + url, e, CountlyPushPlugin.LogLevel.WARNING);
+                    return null;
+                }
+            }
+
+            bitmap = decodeSampled(file, targetWidth, targetHeight);
+            if (bitmap != null) {
+                memoryCache.put(url, bitmap);
+            } else {
+                CountlyPushPlugin.log("Cannot decode media " + url, CountlyPushPlugin.LogLevel.WARNING);
+            }
+            return bitmap;
+        }
+    }
+
+    private static Bitmap decodeSampled(File file, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, width, height);
+        options.inJustDecodeBounds = false;
+        long start = System.nanoTime();
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap != null) {
+            bitmap = scaleToFit(bitmap, width, height);
+        }
+        PushMetrics.bitmapDecode.recordSince(start);
+        return bitmap;
+    }
+
+    /**
+     * Sampling only gets within 2x of requested size, scale the rest of the way so no bitmap is over it.
+     */
+    private static Bitmap scaleToFit(Bitmap bitmap, int width, int height) {
+        float scale = fitScale(bitmap.getWidth(), bitmap.getHeight(), width, height);
+        if (scale >= 1) {
+            return bitmap;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * @return factor fitting both dimensions within requested size keeping aspect ratio, {@code 1} if they already fit
+     */
+    static float fitScale(int width, int height, int requestedWidth, int requestedHeight) {
+        if (requestedWidth <= 0 || requestedHeight <= 0 || width <= 0 || height <= 0) {
+            return 1;
+        }
+        return Math.min(1f, Math.min((float) requestedWidth / width, (float) requestedHeight / height));
+    }
+
+    /**
+     * Largest power of two that keeps both dimensions at or above requested size.
+     */
+    static int calculateInSampleSize(int width, int height, int requestedWidth, int requestedHeight) {
+        int sampleSize = 1;
+        if (requestedWidth <= 0 || requestedHeight <= 0) {
+            return sampleSize;
+        }
+        while (width / (sampleSize * 2) >= requestedWidth && height / (sampleSize * 2) >= requestedHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
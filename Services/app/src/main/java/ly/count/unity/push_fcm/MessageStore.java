@@ -2,79 +2,291 @@ package ly.count.unity.push_fcm;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.util.Log;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 
 public class MessageStore {
-    private static SharedPreferences messagePreferences;
+    private static ActionJournal journal;
+    private static ActionWriter writer;
+    private static ActionJournal.FsyncPolicy fsyncPolicy = ActionJournal.FsyncPolicy.ALWAYS;
+    private static int maxRecords = ActionJournal.DEFAULT_MAX_RECORDS;
+    private static long maxBytes = ActionJournal.DEFAULT_MAX_BYTES;
+    private static long maxAgeMs = ActionJournal.DEFAULT_MAX_AGE_MS;
     private static final String MESSAGE_DATA = "MESSAGE_DATA";
     private static final String MESSAGE_PREFERENCES = "MESSAGE_PREFERENCES";
+    private static final String JOURNAL_FILE = "countly_push_actions.journal";
 
     private MessageStore() {
     }
 
-    public static void init(final Context context) {
-        if (messagePreferences == null) {
-            messagePreferences = context.getSharedPreferences(MESSAGE_PREFERENCES, Context.MODE_PRIVATE);
+    public static synchronized void init(final Context context) {
+        if (journal == null) {
+            journal = new ActionJournal(new File(context.getFilesDir(), JOURNAL_FILE), fsyncPolicy);
+            journal.setRetention(maxRecords, maxBytes, maxAgeMs);
+            writer = new ActionWriter(journal);
+            migrateLegacyData(context);
+            updateBacklogMetric();
+            // Actions may have aged past retention while the app wasn't running
+            writer.compactSoon();
         }
         CountlyPushPlugin.log("MessageStore init", CountlyPushPlugin.LogLevel.DEBUG);
     }
 
+    /**
+     * Set how eagerly appended actions are forced to disk, one of {@code NEVER}, {@code ALWAYS}, {@code PERIODIC}.
+     *
+     * @param policy name of {@link ActionJournal.FsyncPolicy}
+     */
+    public static synchronized void setFsyncPolicy(String policy) {
+        try {
+            fsyncPolicy = ActionJournal.FsyncPolicy.valueOf(policy);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            CountlyPushPlugin.log("Unknown fsync policy: " + policy, CountlyPushPlugin.LogLevel.WARNING);
+            return;
+        }
+
+        if (journal != null) {
+            journal.setFsyncPolicy(fsyncPolicy);
+        }
+    }
+
+    /**
+     * Limit how many stored actions are kept until Unity side reports them. Oldest actions are dropped
+     * first once they are older than {@code maxAgeDays} or the store goes over {@code maxRecords} or {@code maxBytes}.
+     * Applies to this process only, others keep the defaults of 1000 actions, 256 KiB and 30 days.
+     */
+    public static synchronized void setRetention(int maxRecords, long maxBytes, int maxAgeDays) {
+        MessageStore.maxRecords = maxRecords;
+        MessageStore.maxBytes = maxBytes;
+        MessageStore.maxAgeMs = maxAgeDays * 24L * 60 * 60 * 1000;
+
+        if (journal != null) {
+            journal.setRetention(MessageStore.maxRecords, MessageStore.maxBytes, MessageStore.maxAgeMs);
+            writer.compactSoon();
+        }
+    }
+
+    /**
+     * Store an action clicked now, without link and delivery details.
+     *
+     * @deprecated use {@link #store(ActionRecord)}
+     */
+    @Deprecated
     public static boolean storeMessageData(String messageId, String index) {
-        if (!isInitialized()) {
+        int actionIndex;
+        try {
+            actionIndex = Integer.parseInt(index);
+        } catch (NumberFormatException e) {
+            CountlyPushPlugin.log("Failed to store message data", e, CountlyPushPlugin.LogLevel.ERROR);
+            return false;
+        }
+        return store(ActionRecord.clicked(messageId, actionIndex, null, 0, System.currentTimeMillis()));
+    }
+
+    /**
+     * Store a notification action. Safe to call from several threads and processes at once,
+     * returns once the action is written to the journal.
+     *
+     * @return {@code true} if the action is stored
+     */
+    static boolean store(ActionRecord record) {
+        // Not holding the class lock while waiting, so concurrent clicks are written together
+        ActionWriter writer = getWriter();
+        if (writer == null) {
             CountlyPushPlugin.log("MessageStore isn't initialized", CountlyPushPlugin.LogLevel.DEBUG);
             return false;
         }
 
-        String messagesData = getMessagesData();
+        long start = System.nanoTime();
         try {
-            JSONArray jsonArray = null;
+            writer.append(record);
+        } catch (IOException e) {
+            CountlyPushPlugin.log("Failed to store message data", e, CountlyPushPlugin.LogLevel.ERROR);
+            return false;
+        }
+        PushMetrics.storeWrite.recordSince(start);
+        updateBacklogMetric();
 
-            if (messagesData == null) {
-                jsonArray = new JSONArray();
-            } else {
-                jsonArray = new JSONArray(messagesData);
+        return true;
+    }
+
+    public static synchronized void clearMessagesData() {
+        if (isInitialized()) {
+            try {
+                journal.clear();
+                updateBacklogMetric();
+            } catch (IOException e) {
+                CountlyPushPlugin.log("Failed to clear message data", e, CountlyPushPlugin.LogLevel.ERROR);
             }
+        } else {
+            CountlyPushPlugin.log("MessageStore isn't initialized", CountlyPushPlugin.LogLevel.DEBUG);
+        }
+    }
 
-            JSONObject jsonObject = new JSONObject();
+    /**
+     * Stored actions as JSON array of {@code {"messageId": ..., "action_index": ..., "timestamp": ..., "link_hash": ..., "dwell_ms": ...}}
+     * objects, the format {@code AndroidNotificationsService} on Unity side expects. {@code timestamp} and {@code dwell_ms}
+     * are left out when unknown.
+     *
+     * @return JSON array string or {@code null} if there is nothing stored
+     */
+    public static synchronized String getMessagesData() {
+        if (!isInitialized()) {
+            CountlyPushPlugin.log("MessageStore isn't initialized", CountlyPushPlugin.LogLevel.DEBUG);
+            return null;
+        }
 
-            jsonObject.put("action_index", index);
-            jsonObject.put("messageId", messageId);
+        try {
+            List<ActionRecord> entries = journal.readAll();
+            if (entries.isEmpty()) {
+                return null;
+            }
 
-            jsonArray.put(jsonObject);
+            return toJson(entries).toString();
+        } catch (IOException | JSONException e) {
+            CountlyPushPlugin.log("Failed to read message data", e, CountlyPushPlugin.LogLevel.ERROR);
+            return null;
+        }
+    }
+
+    /**
+     * Read a page of stored actions starting at {@code cursor} without removing them.
+     * Pass {@code 0} to start from the oldest stored action, then the returned {@code cursor}
+     * to continue. Actions stay stored until {@link #ack(long)} is called with that cursor.
+     *
+     * @param cursor position to read from
+     * @param maxRecords upper bound of actions in the page
+     * @return JSON object {@code {"cursor": next, "messages": [...]}} or {@code null} on failure
+     */
+    public static synchronized String readBatch(long cursor, int maxRecords) {
+        if (!isInitialized()) {
+            CountlyPushPlugin.log("MessageStore isn't initialized", CountlyPushPlugin.LogLevel.DEBUG);
+            return null;
+        }
 
-            messagePreferences.edit().putString(MESSAGE_DATA, jsonArray.toString()).apply();
+        try {
+            ActionJournal.Batch batch = journal.readBatch(cursor, Math.max(1, maxRecords));
+            JSONObject result = new JSONObject();
+            result.put("cursor", batch.nextCursor);
+            result.put("messages", toJson(batch.entries));
+            return result.toString();
+        } catch (IOException | JSONException | IllegalArgumentException e) {
+            CountlyPushPlugin.log("Failed to read message batch", e, CountlyPushPlugin.LogLevel.ERROR);
+            return null;
+        }
+    }
 
-        } catch (JSONException e) {
-            e.printStackTrace();
-            return false;
+    /**
+     * Same as {@link #readBatch(long, int)} for native callers.
+     *
+     * @return page of actions or {@code null} on failure
+     */
+    static synchronized ActionJournal.Batch readEntries(long cursor, int maxRecords) {
+        if (!isInitialized()) {
+            return null;
         }
 
-        return true;
+        try {
+            return journal.readBatch(cursor, Math.max(1, maxRecords));
+        } catch (IOException | IllegalArgumentException e) {
+            CountlyPushPlugin.log("Failed to read message batch", e, CountlyPushPlugin.LogLevel.ERROR);
+            return null;
+        }
     }
 
-    public static void clearMessagesData() {
-        if (isInitialized()) {
-            messagePreferences.edit().remove(MESSAGE_DATA).apply();
-        } else {
+    /**
+     * Remove every action read up to {@code cursor} returned by {@link #readBatch(long, int)}.
+     * Actions stored after that batch was read are kept.
+     *
+     * @param cursor cursor returned by the last processed batch
+     * @return {@code true} if the actions were removed
+     */
+    public static synchronized boolean ack(long cursor) {
+        if (!isInitialized()) {
             CountlyPushPlugin.log("MessageStore isn't initialized", CountlyPushPlugin.LogLevel.DEBUG);
+            return false;
+        }
+
+        try {
+            journal.ack(cursor);
+            updateBacklogMetric();
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            CountlyPushPlugin.log("Failed to acknowledge message batch", e, CountlyPushPlugin.LogLevel.ERROR);
+            return false;
         }
     }
 
-    public static String getMessagesData() {
-        if (isInitialized()) {
-            return messagePreferences.getString(MESSAGE_DATA, null);
+    public static synchronized boolean isInitialized() {
+        return journal != null;
+    }
+
+    private static synchronized ActionWriter getWriter() {
+        return writer;
+    }
+
+    private static void updateBacklogMetric() {
+        try {
+            PushMetrics.setStoreBacklog(journal.count());
+        } catch (IOException e) {
+            CountlyPushPlugin.log("Cannot count stored actions", e, CountlyPushPlugin.LogLevel.WARNING);
         }
+    }
 
-        CountlyPushPlugin.log("MessageStore isn't initialized", CountlyPushPlugin.LogLevel.DEBUG);
-        return null;
+    private static JSONArray toJson(List<ActionRecord> records) throws JSONException {
+        JSONArray jsonArray = new JSONArray();
+        for (ActionRecord record : records) {
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("action_index", Integer.toString(record.actionIndex));
+            jsonObject.put("messageId", record.messageId);
+            if (record.timestamp != ActionRecord.UNKNOWN_TIMESTAMP) {
+                jsonObject.put("timestamp", record.timestamp);
+            }
+            jsonObject.put("link_hash", record.linkHash);
+            if (record.dwellMs != ActionRecord.UNKNOWN_DWELL) {
+                jsonObject.put("dwell_ms", record.dwellMs);
+            }
+            jsonArray.put(jsonObject);
+        }
+        return jsonArray;
     }
 
-    public static boolean isInitialized() {
-        return messagePreferences != null;
+    /**
+     * Move actions stored by previous plugin versions as JSON string in SharedPreferences into the journal.
+     */
+    private static void migrateLegacyData(Context context) {
+        SharedPreferences preferences = context.getSharedPreferences(MESSAGE_PREFERENCES, Context.MODE_PRIVATE);
+        String legacyData = preferences.getString(MESSAGE_DATA, null);
+        if (legacyData == null) {
+            return;
+        }
+
+        try {
+            JSONArray jsonArray = new JSONArray(legacyData);
+            List<ActionRecord> records = new ArrayList<>(jsonArray.length());
+            for (int i = 0; i < jsonArray.length(); i++) {
+                JSONObject jsonObject = jsonArray.getJSONObject(i);
+                records.add(new ActionRecord(jsonObject.getString("messageId"), Integer.parseInt(jsonObject.getString("action_index")),
+                        ActionRecord.UNKNOWN_TIMESTAMP, 0, ActionRecord.UNKNOWN_DWELL));
+            }
+            // One write and one force for the lot, this runs on the first init
+            journal.append(records);
+            CountlyPushPlugin.log("MessageStore migrated " + jsonArray.length() + " legacy actions", CountlyPushPlugin.LogLevel.DEBUG);
+        } catch (JSONException | NumberFormatException e) {
+            CountlyPushPlugin.log("Dropping unreadable legacy message data", e, CountlyPushPlugin.LogLevel.WARNING);
+        } catch (IOException e) {
+            CountlyPushPlugin.log("Failed to migrate legacy message data, will retry", e, CountlyPushPlugin.LogLevel.ERROR);
+            return;
+        }
+
+        preferences.edit().remove(MESSAGE_DATA).commit();
     }
 }
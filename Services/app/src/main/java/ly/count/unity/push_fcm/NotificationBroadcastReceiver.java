@@ -1,28 +1,47 @@
 package ly.count.unity.push_fcm;
 
-import android.app.NotificationManager;
 import android.net.Uri;
-import android.util.Log;
 import android.os.Bundle;
 import android.content.Intent;
 import android.content.Context;
 
-import com.unity3d.player.UnityPlayer;
 import com.unity3d.player.UnityPlayerActivity;
 
 import android.content.BroadcastReceiver;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.util.Map;
-
 import static ly.count.unity.push_fcm.CountlyPushPlugin.EXTRA_ACTION_INDEX;
 import static ly.count.unity.push_fcm.CountlyPushPlugin.EXTRA_MESSAGE;
 
+/**
+ * Handles notification and button clicks routed through a broadcast, which {@link NotificationRenderer} only does
+ * when {@link ClickTracker} isn't registered or direct routing is off. Only what the user waits for runs on the main
+ * thread: resolving the link and starting the activity. The rest is done by {@link ClickRecorder} while the
+ * broadcast is kept alive with {@link #goAsync()}.
+ *
+ * Also gets {@link #ACTION_DISMISSED} when a notification is swiped away, to release its {@link PendingIntentRegistry} codes,
+ * and {@link #ACTION_RETRY_FORWARD} alarms of {@link ActionForwarder}.
+ */
 public class NotificationBroadcastReceiver extends BroadcastReceiver {
+    static final String ACTION_DISMISSED = "ly.count.android.sdk.CountlyPush.DISMISSED";
+    static final String ACTION_RETRY_FORWARD = "ly.count.android.sdk.CountlyPush.RETRY_FORWARD";
+
     @Override
     public void onReceive(Context context, Intent intent) {
+        if (ACTION_DISMISSED.equals(intent.getAction())) {
+            String messageId = intent.getStringExtra(CountlyPushPlugin.KEY_ID);
+            CountlyPushPlugin.log("Notification {} dismissed", messageId, CountlyPushPlugin.LogLevel.DEBUG);
+            if (messageId != null) {
+                PendingIntentRegistry.getInstance(context).release(messageId);
+            }
+            return;
+        }
+        if (ACTION_RETRY_FORWARD.equals(intent.getAction())) {
+            ActionForwarder.onRetryAlarm(context, goAsync());
+            return;
+        }
+
+        long start = System.nanoTime();
+        long tapAt = ClickTracker.tapTime();
         CountlyPushPlugin.log("NotificationBroadcastReceiver::onReceive", CountlyPushPlugin.LogLevel.DEBUG);
 
         Bundle bundle = intent.getExtras();
@@ -33,47 +52,32 @@ public class NotificationBroadcastReceiver extends BroadcastReceiver {
         }
 
         int index = bundle.getInt(CountlyPushPlugin.EXTRA_ACTION_INDEX, 0);
+        // Large custom payloads are parceled by reference to PayloadStore, they are only loaded on the worker
         CountlyPushPlugin.Message message = bundle.getParcelable(EXTRA_MESSAGE);
-
-        String messageId = message.getId();
-
-        CountlyPushPlugin.log("Message ID: " + messageId, CountlyPushPlugin.LogLevel.DEBUG);
-
-        if (!MessageStore.isInitialized()) {
-            MessageStore.init(context);
-        }
-
-        if (!messageId.isEmpty()) {
-            boolean flag = MessageStore.storeMessageData(messageId, Integer.toString(index));
-            CountlyPushPlugin.log("StoreMessageData: " + flag, CountlyPushPlugin.LogLevel.DEBUG);
+        if (message == null) {
+            CountlyPushPlugin.log("Notification intent without message", CountlyPushPlugin.LogLevel.WARNING);
+            return;
         }
 
-        Intent notificationIntent = new Intent(context, UnityPlayerActivity.class);
-        notificationIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        CountlyPushPlugin.log("Message ID: {}, Index: {}", message.getId(), index, CountlyPushPlugin.LogLevel.DEBUG);
 
         Uri uri = index == 0 ? message.getLink() : message.getButtons().get(index - 1).getLink();
+
         if (uri != null) {
             Intent i = new Intent(Intent.ACTION_VIEW, uri);
             i.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
             i.putExtra(EXTRA_ACTION_INDEX, index);
             context.startActivity(i);
-            CountlyPushPlugin.log("URI: " + uri.toString(), CountlyPushPlugin.LogLevel.DEBUG);
+            CountlyPushPlugin.log("URI: {}", uri, CountlyPushPlugin.LogLevel.DEBUG);
         } else {
+            Intent notificationIntent = new Intent(context, UnityPlayerActivity.class);
+            notificationIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            notificationIntent.putExtra(ClickTracker.EXTRA_ROUTED_AT, tapAt);
             context.startActivity(notificationIntent);
         }
+        PushMetrics.clickToStart.recordSince(start);
 
-        NotificationManager notificationManager =
-                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-        notificationManager.cancel(messageId, 0);
-
-        CountlyPushPlugin.log("Index: " + index, CountlyPushPlugin.LogLevel.DEBUG);
-
-        try {
-            JSONObject jsonObject = new JSONObject(message.getData());
-            jsonObject.put("click_index", index);
-            UnityPlayer.UnitySendMessage(CountlyPushPlugin.UNITY_ANDROID_BRIDGE, "OnNotificationClicked", jsonObject.toString());
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
+        ClickRecorder.record(context, goAsync(), message, index, uri, bundle.getLong(CountlyPushPlugin.EXTRA_DELIVERED_AT, 0),
+                System.currentTimeMillis());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,45 @@
+package ly.count.unity.push_fcm;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+
+import static ly.count.unity.push_fcm.CountlyPushPlugin.EXTRA_ACTION_INDEX;
+import static ly.count.unity.push_fcm.CountlyPushPlugin.EXTRA_DELIVERED_AT;
+import static ly.count.unity.push_fcm.CountlyPushPlugin.EXTRA_MESSAGE;
+
+/**
+ * Invisible activity started directly by clicks which open a link, so the click can be recorded before the link
+ * takes over. Unlike a broadcast receiver, starting an activity from here is allowed on all Android versions.
+ * Nothing is drawn: it opens the link and finishes in {@link #onCreate(Bundle)}. The click is recorded only here,
+ * {@link ClickTracker} leaves this activity alone.
+ */
+public class NotificationClickActivity extends Activity {
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        Intent intent = getIntent();
+        CountlyPushPlugin.Message message = intent == null ? null : intent.<CountlyPushPlugin.Message>getParcelableExtra(EXTRA_MESSAGE);
+        if (savedInstanceState == null && message != null) {
+            int index = intent.getIntExtra(EXTRA_ACTION_INDEX, 0);
+            Uri uri = index == 0 ? message.getLink() : message.getButtons().get(index - 1).getLink();
+            if (uri != null) {
+                Intent view = new Intent(Intent.ACTION_VIEW, uri);
+                view.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                view.putExtra(EXTRA_ACTION_INDEX, index);
+                try {
+                    startActivity(view);
+                    CountlyPushPlugin.log("URI: {}", uri, CountlyPushPlugin.LogLevel.DEBUG);
+                } catch (Throwable t) {
+                    CountlyPushPlugin.log("Cannot open " + uri, t, CountlyPushPlugin.LogLevel.WARNING);
+                }
+                ClickRecorder.record(this, null, message, index, uri, intent.getLongExtra(EXTRA_DELIVERED_AT, 0), System.currentTimeMillis());
+            }
+        }
+
+        finish();
+        overridePendingTransition(0, 0);
+    }
+}
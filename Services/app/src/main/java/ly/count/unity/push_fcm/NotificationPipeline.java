@@ -0,0 +1,220 @@
+package ly.count.unity.push_fcm;
+
+import android.app.Notification;
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes received pushes off the FCM callback thread in stages: decode, enrich (fetch media), render and post,
+ * where posting hands the notification over to {@link PostScheduler} and, if it takes the message as a first delivery,
+ * forwards it to Unity, so a redelivery arriving while the first one is in flight doesn't reach Unity twice.
+ * Several workers run in parallel so a message stuck in one stage doesn't delay the ones after it. The queue is bounded: once it's full, the submitting thread runs the job itself,
+ * which slows FCM delivery down instead of dropping messages or growing memory without limit.
+ *
+ * {@link PushChannel#HIGH} and {@link PushChannel#BULK} messages have lanes of their own, so a transactional push
+ * never waits behind media downloads of other messages and marketing ones only get a background priority thread.
+ * While {@link PostScheduler} holds bulk posts back, their data is kept in {@link HeldPushes} and resubmitted
+ * when the pipeline is created in the next process.
+ */
+class NotificationPipeline {
+    enum Stage {DECODE, ENRICH, RENDER, POST}
+
+    private static final int WORKERS = 2;
+    private static final int LANE_WORKERS = 1;
+    private static final int QUEUE_CAPACITY = 32;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static NotificationPipeline instance;
+
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor highLane;
+    private final ThreadPoolExecutor bulkLane;
+    private final NotificationRenderer renderer;
+    private final PostScheduler poster;
+    private final MediaLoader mediaLoader;
+    private final HeldPushes held;
+
+    static synchronized NotificationPipeline getInstance(Context context) {
+        if (instance == null) {
+            PayloadStore.init(context);
+            DedupIndex dedup = DedupIndex.getInstance(context);
+            instance = new NotificationPipeline(new NotificationRenderer(context), MediaLoader.getInstance(context), dedup,
+                    new HeldPushes(new File(context.getFilesDir(), HeldPushes.DIRECTORY)));
+            instance.resubmitHeld(dedup);
+        }
+        return instance;
+    }
+
+    private NotificationPipeline(NotificationRenderer renderer, MediaLoader mediaLoader, DedupIndex dedup, HeldPushes held) {
+        this.renderer = renderer;
+        this.held = held;
+        this.poster = new PostScheduler(renderer, dedup, held);
+        this.mediaLoader = mediaLoader;
+        this.executor = newExecutor(WORKERS, "CountlyPushPipeline-", Thread.NORM_PRIORITY);
+        this.highLane = newExecutor(LANE_WORKERS, "CountlyPushPipelineHigh-", Thread.NORM_PRIORITY);
+        this.bulkLane = newExecutor(LANE_WORKERS, "CountlyPushPipelineBulk-", Thread.MIN_PRIORITY);
+    }
+
+    private static ThreadPoolExecutor newExecutor(int workers, String name, int priority) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(workers, workers, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new PipelineThreadFactory(name, priority), new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Queue push data for processing.
+     *
+     * @param data {@code RemoteMessage#getData()} map
+     */
+    void submit(Map<String, String> data) {
+        // Routed on the raw value, decoding happens on the lane already
+        PushChannel channel = PushChannel.forValue(data.get(CountlyPushPlugin.KEY_PRIORITY));
+        String id = data.get(CountlyPushPlugin.KEY_ID);
+        if (channel == PushChannel.BULK && id != null && CountlyPushPlugin.getBulkDelay() > 0) {
+            held.hold(id, data);
+        }
+        Job job = new Job(data, channel, System.nanoTime());
+        if (channel == PushChannel.HIGH) {
+            highLane.execute(job);
+        } else if (channel == PushChannel.BULK) {
+            bulkLane.execute(job);
+        } else {
+            executor.execute(job);
+        }
+    }
+
+    /**
+     * Submit bulk pushes held back when the process died, unless they were posted or expired meanwhile.
+     */
+    private void resubmitHeld(DedupIndex dedup) {
+        long now = System.currentTimeMillis();
+        for (Map<String, String> data : held.restore(now)) {
+            CountlyPushPlugin.log("Resubmitting held message {}", data.get(CountlyPushPlugin.KEY_ID), CountlyPushPlugin.LogLevel.DEBUG);
+            if (RemoteNotificationsService.accept(data, dedup, now)) {
+                submit(data);
+            }
+        }
+    }
+
+    static synchronized int getQueueDepth() {
+        if (instance == null) {
+            return 0;
+        }
+        return instance.executor.getQueue().size() + instance.highLane.getQueue().size() + instance.bulkLane.getQueue().size()
+                + instance.poster.getQueueDepth();
+    }
+
+    private class Job implements Runnable {
+        private final Map<String, String> data;
+        private final PushChannel channel;
+        private final long submittedAt;
+        private final long[] stageNanos = new long[Stage.values().length];
+        private long stageStart;
+
+        Job(Map<String, String> data, PushChannel channel, long submittedAt) {
+            this.data = data;
+            this.channel = channel;
+            this.submittedAt = submittedAt;
+        }
+
+        @Override
+        public void run() {
+            long queued = System.nanoTime() - submittedAt;
+            Stage stage = Stage.DECODE;
+            String messageId = null;
+            boolean enqueued = false;
+            try {
+                stageStart = System.nanoTime();
+                CountlyPushPlugin.Message message = CountlyPushPlugin.decodeMessage(data);
+                end(stage);
+
+                if (message != null && CountlyPushPlugin.Message.isExpired(data, System.currentTimeMillis())) {
+                    // Went stale waiting in the queue
+                    PushMetrics.messagesExpired.increment();
+                    CountlyPushPlugin.log("Dropping expired message {}", message.getId(), CountlyPushPlugin.LogLevel.DEBUG);
+                    return;
+                }
+
+                stage = Stage.ENRICH;
+                if (message == null) {
+                    UnityBridge.getInstance().postReceived(data);
+                    end(stage);
+                    CountlyPushPlugin.log("Not a Countly message, nothing to display", CountlyPushPlugin.LogLevel.DEBUG);
+                    return;
+                }
+                messageId = message.getId();
+
+                // Transactional messages don't wait for a download, they show as plain notifications
+                Bitmap media = channel == PushChannel.HIGH || message.getMedia() == null ? null : mediaLoader.load(message.getMedia());
+                end(stage);
+
+                stage = Stage.RENDER;
+                Notification.Builder notification = renderer.render(message, media);
+                end(stage);
+
+                // Actual posting is paced by the scheduler, this only measures handing it over
+                stage = Stage.POST;
+                boolean first = poster.enqueue(message, notification, submittedAt);
+                enqueued = true;
+                end(stage);
+
+                if (first) {
+                    UnityBridge.getInstance().postReceived(message);
+                }
+            } catch (Throwable t) {
+                if (stage == Stage.DECODE) {
+                    PushMetrics.decodeFailures.increment();
+                }
+                CountlyPushPlugin.log("Notification pipeline failed at " + stage + " for message " + messageId, t, CountlyPushPlugin.LogLevel.ERROR);
+            } finally {
+                if (channel == PushChannel.BULK && !enqueued && data.get(CountlyPushPlugin.KEY_ID) != null) {
+                    // Dropped or failed, nothing left to post later
+                    held.release(data.get(CountlyPushPlugin.KEY_ID));
+                }
+                if (CountlyPushPlugin.isLoggable(CountlyPushPlugin.LogLevel.DEBUG)) {
+                    CountlyPushPlugin.log("Pipeline timings for " + messageId + ": queued=" + TimeUnit.NANOSECONDS.toMicros(queued)
+                            + "us decode=" + micros(Stage.DECODE) + "us enrich=" + micros(Stage.ENRICH)
+                            + "us render=" + micros(Stage.RENDER) + "us post=" + micros(Stage.POST) + "us", CountlyPushPlugin.LogLevel.DEBUG);
+                }
+            }
+        }
+
+        private void end(Stage stage) {
+            long now = System.nanoTime();
+            stageNanos[stage.ordinal()] = now - stageStart;
+            stageStart = now;
+        }
+
+        private long micros(Stage stage) {
+            return TimeUnit.NANOSECONDS.toMicros(stageNanos[stage.ordinal()]);
+        }
+    }
+
+    private static class PipelineThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+        private final String name;
+        private final int priority;
+
+        PipelineThreadFactory(String name, int priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package ly.count.unity.push_fcm;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+
+import com.unity3d.player.UnityPlayerActivity;
+
+import java.util.Collection;
+
+/**
+ * Builds and posts notifications for decoded {@link CountlyPushPlugin.Message}s.
+ * Works with application context only, so it can be used after the FCM service is gone.
+ */
+class NotificationRenderer implements PostScheduler.Target {
+    static final String GROUP_KEY = "ly.count.unity.sdk.CountlyPush.GROUP";
+    private static final String SUMMARY_TAG = "ly.count.unity.sdk.CountlyPush.SUMMARY";
+
+    private final Context context;
+    private final NotificationResources resources;
+    private final PendingIntentRegistry intents;
+    private Boolean clickActivityDeclared;
+
+    NotificationRenderer(Context context) {
+        this.context = context.getApplicationContext();
+        this.resources = NotificationResources.getInstance(context);
+        this.intents = PendingIntentRegistry.getInstance(context);
+    }
+
+    /**
+     * @param media decoded {@code c.m} image shown as big picture, {@code null} for a plain notification
+     * @return builder ready to be built, left unbuilt so that {@link PostScheduler} can still group it
+     */
+    Notification.Builder render(CountlyPushPlugin.Message message, Bitmap media) {
+        Notification.Builder notificationBuilder = newBuilder(message.getChannel());
+
+        Intent notificationIntent = new Intent();
+
+        String messageId = message.getId();
+        notificationIntent.putExtra(CountlyPushPlugin.KEY_ID, messageId);
+        notificationIntent.putExtra(CountlyPushPlugin.EXTRA_MESSAGE, message);
+        notificationIntent.putExtra(CountlyPushPlugin.EXTRA_ACTION_INDEX, 0);
+        // Time of the first post, so a reused intent and a recreated one carry the same value
+        notificationIntent.putExtra(CountlyPushPlugin.EXTRA_DELIVERED_AT, intents.firstPostedAt(messageId, System.currentTimeMillis()));
+
+        // Same message posted again with the same content keeps its intents
+        int contentHash = message.contentHash();
+        PendingIntent pendingIntent = clickIntent(messageId, notificationIntent, message.getLink(), PendingIntentRegistry.SLOT_CONTENT, contentHash);
+
+        notificationBuilder
+                .setAutoCancel(true)
+                .setSound(resources.getSound())
+                .setLargeIcon(resources.getLargeIcon())
+                .setContentIntent(pendingIntent)
+                .setDeleteIntent(deleteIntent(messageId))
+                .setSmallIcon(R.drawable.ic_stat)
+                .setContentTitle(message.getTitle())
+                .setContentText(message.getMessage());
+
+        if (media != null) {
+            notificationBuilder.setStyle(new Notification.BigPictureStyle()
+                    .bigPicture(media)
+                    .setSummaryText(message.getMessage()));
+        }
+
+        if (android.os.Build.VERSION.SDK_INT > 21) {
+            notificationBuilder.setColor(resources.getColor());
+        }
+
+        // Expired offers leave the shade on their own where the system supports it
+        long expiresAt = message.getExpiresAt();
+        if (expiresAt > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            notificationBuilder.setTimeoutAfter(Math.max(expiresAt - System.currentTimeMillis(), 1));
+        }
+
+        int buttons = message.getButtons().size();
+        if (buttons > PendingIntentRegistry.MAX_BUTTONS) {
+            CountlyPushPlugin.log("Message {} has {} buttons, showing the first {}",
+                    messageId, buttons, PendingIntentRegistry.MAX_BUTTONS, CountlyPushPlugin.LogLevel.WARNING);
+            buttons = PendingIntentRegistry.MAX_BUTTONS;
+        }
+        for (int i = 0; i < buttons; i++) {
+            CountlyPushPlugin.Message.Button button = message.getButtons().get(i);
+            Intent buttonIntent = (Intent) notificationIntent.clone();
+            buttonIntent.putExtra(CountlyPushPlugin.EXTRA_ACTION_INDEX, i + 1);
+
+            if (android.os.Build.VERSION.SDK_INT > 16) {
+                notificationBuilder.addAction(button.getIcon(), button.getTitle(),
+                        clickIntent(messageId, buttonIntent, button.getLink(), i + 1, contentHash));
+            }
+        }
+
+        return notificationBuilder;
+    }
+
+    /**
+     * Click target starting the link or app activity directly, without a broadcast trampoline in between,
+     * or {@link NotificationBroadcastReceiver} if clicks can't be routed directly.
+     *
+     * @param extras message extras of the click
+     * @param slot   {@link PendingIntentRegistry} slot of the click target
+     */
+    private PendingIntent clickIntent(String messageId, Intent extras, Uri link, int slot, int contentHash) {
+        Intent intent = (Intent) extras.clone();
+        if (!CountlyPushPlugin.isDirectClickRouting() || (link != null && !isClickActivityDeclared())) {
+            intent.setClass(context, NotificationBroadcastReceiver.class);
+            return intents.broadcast(context, messageId, slot, intent, contentHash);
+        }
+        // App activity gets its click recorded by ClickTracker, links leave the app and need a moment in it first
+        intent.setClass(context, link == null ? UnityPlayerActivity.class : NotificationClickActivity.class);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        return intents.activity(context, messageId, slot, intent, contentHash);
+    }
+
+    /**
+     * Whether the app manifest declares {@link NotificationClickActivity}, which {@link PushInitProvider} doesn't
+     * guarantee: a manifest declaring only the provider would otherwise get link clicks nothing can start.
+     */
+    private synchronized boolean isClickActivityDeclared() {
+        if (clickActivityDeclared == null) {
+            try {
+                context.getPackageManager().getActivityInfo(new ComponentName(context, NotificationClickActivity.class), 0);
+                clickActivityDeclared = true;
+            } catch (PackageManager.NameNotFoundException e) {
+                CountlyPushPlugin.log("NotificationClickActivity isn't declared, link clicks go through the broadcast receiver",
+                        CountlyPushPlugin.LogLevel.WARNING);
+                clickActivityDeclared = false;
+            }
+        }
+        return clickActivityDeclared;
+    }
+
+    /**
+     * Tells {@link NotificationBroadcastReceiver} the notification is gone, so its intents can be released.
+     */
+    private PendingIntent deleteIntent(String messageId) {
+        Intent intent = new Intent(context, NotificationBroadcastReceiver.class);
+        intent.setAction(NotificationBroadcastReceiver.ACTION_DISMISSED);
+        intent.putExtra(CountlyPushPlugin.KEY_ID, messageId);
+        return intents.broadcast(context, messageId, PendingIntentRegistry.SLOT_DELETE, intent, 0);
+    }
+
+    @Override
+    public void group(Notification.Builder builder) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH) {
+            builder.setGroup(GROUP_KEY);
+        }
+    }
+
+    @Override
+    public void post(CountlyPushPlugin.Message message, Notification notification) {
+        NotificationManager notificationManager =
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        notificationManager.notify(message.getId(), 0, notification);
+    }
+
+    /**
+     * Post or update the summary of grouped notifications, opening the app when clicked.
+     *
+     * @param lines latest lines first
+     * @param count number of notifications in the group
+     */
+    @Override
+    public void postSummary(Collection<CharSequence> lines, int count) {
+        Notification.InboxStyle style = new Notification.InboxStyle();
+        for (CharSequence line : lines) {
+            style.addLine(line);
+        }
+        if (count > lines.size()) {
+            style.setSummaryText("+" + (count - lines.size()));
+        }
+
+        Notification.Builder builder = newBuilder(PushChannel.DEFAULT)
+                .setAutoCancel(true)
+                .setSmallIcon(R.drawable.ic_stat)
+                .setContentTitle(lines.isEmpty() ? null : lines.iterator().next())
+                .setNumber(count)
+                .setStyle(style);
+
+        Intent launchIntent = context.getPackageManager().getLaunchIntentForPackage(context.getPackageName());
+        if (launchIntent != null) {
+            builder.setContentIntent(PendingIntent.getActivity(context, 0, launchIntent, PendingIntentRegistry.flags()));
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH) {
+            builder.setGroup(GROUP_KEY).setGroupSummary(true);
+        }
+        if (Build.VERSION.SDK_INT > 21) {
+            builder.setColor(resources.getColor());
+        }
+
+        NotificationManager notificationManager =
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        notificationManager.notify(SUMMARY_TAG, 0, builder.build());
+    }
+
+    private Notification.Builder newBuilder(PushChannel channel) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            resources.ensureChannel(channel);
+            return new Notification.Builder(context, channel.id);
+        }
+        // Channel importance takes over from Android 8 on
+        return new Notification.Builder(context).setPriority(channel.priority);
+    }
+}
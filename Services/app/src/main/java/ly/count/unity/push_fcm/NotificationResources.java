@@ -0,0 +1,117 @@
+package ly.count.unity.push_fcm;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.ComponentCallbacks;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.Build;
+
+/**
+ * Per-process cache of everything a notification needs that doesn't depend on the message:
+ * large icon bitmap, sound, accent color and which channels exist. Resolved lazily on first use
+ * instead of for every push, and dropped when configuration changes since resources may resolve differently then.
+ */
+class NotificationResources implements ComponentCallbacks {
+    private static NotificationResources instance;
+
+    private final Context context;
+    private Bitmap largeIcon;
+    private Uri sound;
+    private Integer color;
+    // Bit per PushChannel ordinal, set once the channel is known to exist
+    private volatile int readyChannels;
+
+    static synchronized NotificationResources getInstance(Context context) {
+        if (instance == null) {
+            instance = new NotificationResources(context.getApplicationContext());
+            instance.context.registerComponentCallbacks(instance);
+        }
+        return instance;
+    }
+
+    private NotificationResources(Context context) {
+        this.context = context;
+    }
+
+    synchronized Bitmap getLargeIcon() {
+        if (largeIcon == null) {
+            long start = System.nanoTime();
+            largeIcon = BitmapFactory.decodeResource(context.getResources(), R.drawable.ic_stat);
+            PushMetrics.bitmapDecode.recordSince(start);
+        }
+        return largeIcon;
+    }
+
+    synchronized Uri getSound() {
+        if (sound == null) {
+            sound = RingtoneManager.getDefaultUri(R.raw.boing);
+        }
+        return sound;
+    }
+
+    synchronized int getColor() {
+        if (color == null) {
+            color = context.getResources().getColor(R.color.color_notification);
+        }
+        return color;
+    }
+
+    /**
+     * Make sure a Countly channel exists, going over IPC to {@link NotificationManager} only the first time.
+     */
+    void ensureChannel(PushChannel pushChannel) {
+        int bit = 1 << pushChannel.ordinal();
+        if ((readyChannels & bit) != 0 || Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return;
+        }
+
+        synchronized (this) {
+            if ((readyChannels & bit) != 0) {
+                return;
+            }
+            NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+            if (notificationManager == null) {
+                return;
+            }
+            if (notificationManager.getNotificationChannel(pushChannel.id) == null) {
+                // Register the channel with the system; you can't change the importance
+                // or other notification behaviors after this
+                NotificationChannel channel =
+                        new NotificationChannel(pushChannel.id, context.getString(pushChannel.name), pushChannel.importance);
+                channel.setDescription(context.getString(pushChannel.description));
+
+                channel.setLightColor(Color.GREEN);
+                notificationManager.createNotificationChannel(channel);
+
+                CountlyPushPlugin.log("NotificationChannel {} Created", pushChannel.id, CountlyPushPlugin.LogLevel.DEBUG);
+            }
+            readyChannels |= bit;
+        }
+    }
+
+    synchronized void invalidate() {
+        largeIcon = null;
+        sound = null;
+        color = null;
+        readyChannels = 0;
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        CountlyPushPlugin.log("Configuration changed, dropping cached notification resources", CountlyPushPlugin.LogLevel.DEBUG);
+        invalidate();
+    }
+
+    @Override
+    public void onLowMemory() {
+        synchronized (this) {
+            largeIcon = null;
+        }
+    }
+}
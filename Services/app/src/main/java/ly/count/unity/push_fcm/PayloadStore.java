@@ -0,0 +1,176 @@
+package ly.count.unity.push_fcm;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps custom message payloads on disk by message id, so notification intents carry
+ * only the id instead of the whole payload. Entries are removed when their notification
+ * is handled, anything left behind is swept after {@link #MAX_AGE_MS}.
+ */
+class PayloadStore {
+    private static final String DIRECTORY = "countly_push_payloads";
+    private static final long MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // Far above any push payload, only there to reject corrupt files
+    static final int MAX_ENTRIES = 4096;
+
+    private static File directory;
+
+    private PayloadStore() {
+    }
+
+    static synchronized void init(Context context) {
+        if (directory != null) {
+            return;
+        }
+        File dir = new File(context.getFilesDir(), DIRECTORY);
+        if (!dir.exists() && !dir.mkdirs()) {
+            CountlyPushPlugin.log("Cannot create payload directory " + dir, CountlyPushPlugin.LogLevel.WARNING);
+            return;
+        }
+        directory = dir;
+        sweep(System.currentTimeMillis() - MAX_AGE_MS);
+    }
+
+    static synchronized boolean isInitialized() {
+        return directory != null;
+    }
+
+    static synchronized boolean put(String messageId, Map<String, String> payload) {
+        if (directory == null) {
+            return false;
+        }
+
+        try {
+            writeMap(fileFor(messageId), payload);
+            return true;
+        } catch (IOException e) {
+            CountlyPushPlugin.log("Cannot store payload of " + messageId, e, CountlyPushPlugin.LogLevel.WARNING);
+            return false;
+        }
+    }
+
+    /**
+     * @return stored payload or {@code null} if there is none
+     */
+    static synchronized Map<String, String> get(String messageId) {
+        if (directory == null) {
+            return null;
+        }
+
+        File file = fileFor(messageId);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return readMap(file);
+        } catch (IOException e) {
+            CountlyPushPlugin.log("Cannot read payload of " + messageId, e, CountlyPushPlugin.LogLevel.WARNING);
+            return null;
+        }
+    }
+
+    static synchronized void remove(String messageId) {
+        if (directory != null) {
+            fileFor(messageId).delete();
+        }
+    }
+
+    private static void sweep(long olderThan) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.lastModified() < olderThan) {
+                file.delete();
+            }
+        }
+    }
+
+    private static File fileFor(String messageId) {
+        return new File(directory, MediaDiskCache.key(messageId));
+    }
+
+    /**
+     * Write {@code map} to {@code file} through a temporary file, so a crash never leaves a partial one behind.
+     */
+    static void writeMap(File file, Map<String, String> map) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(map.size());
+                for (Map.Entry<String, String> entry : map.entrySet()) {
+                    writeString(out, entry.getKey());
+                    writeString(out, entry.getValue());
+                }
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot rename " + temp);
+            }
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * @throws IOException also if the file is truncated or its sizes don't add up, so a corrupt file never gets allocated for
+     */
+    static Map<String, String> readMap(File file) throws IOException {
+        long length = file.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int size = in.readInt();
+            // Every entry takes at least its two lengths
+            if (size < 0 || size > MAX_ENTRIES || 4 + size * 8L > length) {
+                throw new IOException("Corrupt map file " + file + ", " + size + " entries in " + length + " bytes");
+            }
+            Map<String, String> map = new HashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                map.put(readString(in, length), readString(in, length));
+            }
+            return map;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, long fileLength) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > fileLength) {
+            throw new IOException("Corrupt map file, string of " + length + " bytes in " + fileLength);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
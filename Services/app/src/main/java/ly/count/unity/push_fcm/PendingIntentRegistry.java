@@ -0,0 +1,270 @@
+package ly.count.unity.push_fcm;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Request codes and {@link PendingIntent}s of notification clicks. Each message id gets a block of {@link #SLOTS}
+ * request codes of its own, kept across process restarts, so intents of different messages never overwrite each other
+ * and a message posted again updates the intents it already has instead of cancelling and creating them.
+ *
+ * Intents created in this process are also kept until released: posting the same message again with unchanged
+ * content reuses them without going to the system at all. Blocks are released when the notification is clicked
+ * or dismissed, or when over capacity the least recently used block is dropped.
+ *
+ * A block remembers when its message was first posted, which click intents carry as delivery time, so dwell
+ * counts from the first post of a message however often it is posted again, in this process or after a restart.
+ */
+final class PendingIntentRegistry {
+    static final int SLOTS = 8;
+    static final int SLOT_CONTENT = 0;
+    /** Last slot, buttons take the ones in between */
+    static final int SLOT_DELETE = SLOTS - 1;
+    static final int MAX_BUTTONS = SLOT_DELETE - 1;
+
+    private static final String PREFERENCES = "countly_push_intents";
+    private static final String PREF_NEXT = "next";
+    private static final String PREF_MESSAGE = "m.";
+    private static final int DEFAULT_CAPACITY = 512;
+
+    private static PendingIntentRegistry instance;
+
+    private final SharedPreferences preferences;
+    private final int capacity;
+    // Access ordered, so the first entry is the block used least recently
+    private final Map<String, Block> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<Integer> bases = new HashSet<>();
+    private final Map<Integer, Cached> intents = new HashMap<>();
+    // First block starts past the codes of one block, code 0 is the group summary's
+    private int next = SLOTS;
+
+    static synchronized PendingIntentRegistry getInstance(Context context) {
+        if (instance == null) {
+            instance = new PendingIntentRegistry(context.getApplicationContext()
+                    .getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE), DEFAULT_CAPACITY);
+        }
+        return instance;
+    }
+
+    /**
+     * @param preferences preferences to persist to or {@code null} to keep allocations in memory only
+     * @param capacity    number of message ids kept before the least recently used is forgotten; far above the number of
+     *                    notifications Android shows for an app at once
+     */
+    PendingIntentRegistry(SharedPreferences preferences, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.preferences = preferences;
+        this.capacity = capacity;
+        if (preferences != null) {
+            load();
+        }
+    }
+
+    private void load() {
+        next = Math.max(preferences.getInt(PREF_NEXT, SLOTS), SLOTS);
+        final Map<String, Block> loaded = new HashMap<>();
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            if (!entry.getKey().startsWith(PREF_MESSAGE) || !(entry.getValue() instanceof String)) {
+                continue;
+            }
+            String value = (String) entry.getValue();
+            int comma = value.indexOf(',');
+            try {
+                int base = Integer.parseInt(value.substring(0, comma));
+                long allocatedAt = Long.parseLong(value.substring(comma + 1));
+                if (base >= SLOTS && bases.add(base)) {
+                    loaded.put(entry.getKey().substring(PREF_MESSAGE.length()), new Block(base, allocatedAt));
+                }
+            } catch (RuntimeException e) {
+                CountlyPushPlugin.log("Dropping malformed intent allocation {}", entry.getKey(), CountlyPushPlugin.LogLevel.WARNING);
+            }
+        }
+
+        // Use isn't persisted, blocks of the last process come back in the order they were allocated
+        List<String> ids = new ArrayList<>(loaded.keySet());
+        Collections.sort(ids, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                long diff = loaded.get(a).allocatedAt - loaded.get(b).allocatedAt;
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+        for (String id : ids) {
+            blocks.put(id, loaded.get(id));
+        }
+    }
+
+    /**
+     * Flags for notification intents: updated in place when the same request code is used again, and immutable
+     * where supported, as the system requires from Android 12 on.
+     */
+    static int flags() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            return PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE;
+        }
+        return PendingIntent.FLAG_UPDATE_CURRENT;
+    }
+
+    /**
+     * @return request code of {@code slot} in the block of {@code messageId}, allocating the block if needed
+     */
+    synchronized int requestCode(String messageId, int slot, long now) {
+        if (slot < 0 || slot >= SLOTS) {
+            throw new IllegalArgumentException("slot out of range: " + slot);
+        }
+        return block(messageId, now).base + slot;
+    }
+
+    /**
+     * @return time {@code messageId} was first posted, {@code now} if it wasn't yet, allocating its block if needed
+     */
+    synchronized long firstPostedAt(String messageId, long now) {
+        return block(messageId, now).allocatedAt;
+    }
+
+    private Block block(String messageId, long now) {
+        Block block = blocks.get(messageId);
+        if (block == null) {
+            block = allocate(messageId, now);
+        }
+        return block;
+    }
+
+    private Block allocate(String messageId, long now) {
+        if (blocks.size() >= capacity) {
+            evictLeastRecentlyUsed();
+        }
+        int base = next;
+        while (bases.contains(base)) {
+            base = advance(base);
+        }
+        next = advance(base);
+
+        Block block = new Block(base, now);
+        blocks.put(messageId, block);
+        bases.add(base);
+        if (preferences != null) {
+            preferences.edit()
+                    .putString(PREF_MESSAGE + messageId, base + "," + now)
+                    .putInt(PREF_NEXT, next)
+                    .apply();
+        }
+        return block;
+    }
+
+    private static int advance(int base) {
+        return base > Integer.MAX_VALUE - 2 * SLOTS ? SLOTS : base + SLOTS;
+    }
+
+    private void evictLeastRecentlyUsed() {
+        Iterator<String> ids = blocks.keySet().iterator();
+        if (ids.hasNext()) {
+            release(ids.next());
+        }
+    }
+
+    /**
+     * Intent starting an activity for {@code slot} of {@code messageId}.
+     *
+     * @param contentHash hash of what {@code intent} carries; the intent created for the same slot earlier is reused
+     *                    as long as it and the target component are the same
+     */
+    PendingIntent activity(Context context, String messageId, int slot, Intent intent, int contentHash) {
+        return get(context, true, messageId, slot, intent, contentHash);
+    }
+
+    /**
+     * Intent sending a broadcast for {@code slot} of {@code messageId}, see {@link #activity(Context, String, int, Intent, int)}.
+     */
+    PendingIntent broadcast(Context context, String messageId, int slot, Intent intent, int contentHash) {
+        return get(context, false, messageId, slot, intent, contentHash);
+    }
+
+    private synchronized PendingIntent get(Context context, boolean activity, String messageId, int slot, Intent intent, int contentHash) {
+        int requestCode = requestCode(messageId, slot, System.currentTimeMillis());
+        String target = (activity ? "a:" : "b:") + intent.getComponent();
+
+        Cached cached = intents.get(requestCode);
+        if (cached != null && cached.contentHash == contentHash && cached.target.equals(target)) {
+            return cached.intent;
+        }
+        if (cached != null && !cached.target.equals(target)) {
+            // A different component makes a different intent, the old one would stay around unused
+            cached.intent.cancel();
+        }
+
+        PendingIntent pendingIntent = activity
+                ? PendingIntent.getActivity(context, requestCode, intent, flags())
+                : PendingIntent.getBroadcast(context, requestCode, intent, flags());
+        if (pendingIntent != null) {
+            intents.put(requestCode, new Cached(pendingIntent, target, contentHash));
+        }
+        return pendingIntent;
+    }
+
+    /**
+     * Cancel intents of {@code messageId} created in this process and free its request codes.
+     */
+    synchronized void release(String messageId) {
+        Block block = blocks.remove(messageId);
+        if (block == null) {
+            return;
+        }
+        bases.remove(block.base);
+        for (int slot = 0; slot < SLOTS; slot++) {
+            Cached cached = intents.remove(block.base + slot);
+            if (cached != null) {
+                cached.intent.cancel();
+            }
+        }
+        if (preferences != null) {
+            preferences.edit().remove(PREF_MESSAGE + messageId).apply();
+        }
+    }
+
+    synchronized int size() {
+        return blocks.size();
+    }
+
+    synchronized boolean isAllocated(String messageId) {
+        return blocks.containsKey(messageId);
+    }
+
+    private static class Block {
+        final int base;
+        final long allocatedAt;
+
+        Block(int base, long allocatedAt) {
+            this.base = base;
+            this.allocatedAt = allocatedAt;
+        }
+    }
+
+    private static class Cached {
+        final PendingIntent intent;
+        final String target;
+        final int contentHash;
+
+        Cached(PendingIntent intent, String target, int contentHash) {
+            this.intent = intent;
+            this.target = target;
+            this.contentHash = contentHash;
+        }
+    }
+}
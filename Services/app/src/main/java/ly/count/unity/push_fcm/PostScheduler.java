@@ -0,0 +1,296 @@
+package ly.count.unity.push_fcm;
+
+import android.app.Notification;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts rendered notifications no faster than the system accepts them. NotificationManagerService
+ * silently drops notifications of an app that enqueues more than a few per second, which is exactly what
+ * a backlog delivered at once used to trigger; here posts wait for a {@link TokenBucket} token instead.
+ *
+ * While waiting, a newer notification for the same message replaces the queued one and keeps its place: FCM
+ * redelivering a message before its first delivery is posted is only caught here, as {@link DedupIndex} marks
+ * ids as seen once their notification is posted. Only the first delivery of a message is reported as accepted, which is
+ * when the pipeline forwards it to Unity.
+ * Once a burst reaches {@link #GROUP_THRESHOLD} notifications, following ones are bundled into a group
+ * under an {@code InboxStyle} summary, which is updated once per drain rather than once per message.
+ *
+ * Queues are kept per {@link PushChannel} and drained in its order. {@link PushChannel#HIGH} posts go first and are
+ * never grouped. {@link PushChannel#BULK} posts are held back for {@link CountlyPushPlugin#setBulkDelay(long)} after the first
+ * one arrives, so a marketing campaign goes out as one batch, grouped when it has more than one message, after everything else.
+ * Their data stays in {@link HeldPushes} until posted, so the ones held when the process dies are posted at its next start.
+ */
+class PostScheduler {
+    /**
+     * Where notifications end up, {@link NotificationRenderer} outside of tests.
+     */
+    interface Target {
+        void group(Notification.Builder builder);
+
+        void post(CountlyPushPlugin.Message message, Notification notification);
+
+        void postSummary(Collection<CharSequence> lines, int count);
+    }
+
+    static final int BUCKET_CAPACITY = 5;
+    static final double POSTS_PER_SECOND = 5;
+    static final int GROUP_THRESHOLD = 4;
+    private static final long BURST_WINDOW_MS = 10000;
+    private static final int SUMMARY_LINES = 5;
+    static final long BULK_DELAY_MS = 3000;
+
+    private final Target renderer;
+    private final DedupIndex dedup;
+    private final HeldPushes held;
+    private final TokenBucket bucket = new TokenBucket(BUCKET_CAPACITY, POSTS_PER_SECOND, System.nanoTime());
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "CountlyPushPoster");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final EnumMap<PushChannel, LinkedHashMap<String, Post>> queues = new EnumMap<>(PushChannel.class);
+    private boolean drainScheduled;
+    // The scheduled drain only waits for bulkDueAt, anything else should drain right away
+    private boolean drainDeferred;
+    // System.nanoTime() when held back bulk posts go out, 0 if none are queued
+    private long bulkDueAt;
+
+    // Current burst, only touched on the scheduler thread
+    private long lastPostAt;
+    private int burstSize;
+    private boolean grouping;
+    private int groupSize;
+    private final ArrayDeque<CharSequence> summaryLines = new ArrayDeque<>();
+    private boolean summaryDirty;
+
+    PostScheduler(Target renderer, DedupIndex dedup, HeldPushes held) {
+        this.renderer = renderer;
+        this.dedup = dedup;
+        this.held = held;
+        for (PushChannel channel : PushChannel.values()) {
+            queues.put(channel, new LinkedHashMap<String, Post>());
+        }
+    }
+
+    /**
+     * Queue notification for posting.
+     *
+     * @param submittedAt {@link System#nanoTime()} when the push was received, for latency metrics
+     * @return {@code true} if this is the first delivery of the message, {@code false} if it replaced a queued one
+     * or its notification was posted already
+     */
+    boolean enqueue(CountlyPushPlugin.Message message, Notification.Builder builder, long submittedAt) {
+        PushChannel channel = message.getChannel();
+        boolean accepted;
+        synchronized (this) {
+            if (!isQueued(message.getId()) && dedup.isSeen(message.getId(), System.currentTimeMillis())) {
+                // Redelivery which passed the check on receipt while the first one was still on its way here
+                if (channel == PushChannel.BULK) {
+                    held.release(message.getId());
+                }
+                PushMetrics.duplicatesDropped.increment();
+                CountlyPushPlugin.log("Dropping redelivered message {}", message.getId(), CountlyPushPlugin.LogLevel.DEBUG);
+                return false;
+            }
+            Post previous = queues.get(channel).put(message.getId(), new Post(message, builder, channel, submittedAt));
+            if (previous == null) {
+                // Same message sent again with another priority moves to the new queue
+                for (LinkedHashMap<String, Post> queue : queues.values()) {
+                    if (queue != queues.get(channel) && (previous = queue.remove(message.getId())) != null) {
+                        break;
+                    }
+                }
+            }
+            if (previous != null) {
+                if (previous.channel == PushChannel.BULK && channel != PushChannel.BULK) {
+                    held.release(message.getId());
+                }
+                PushMetrics.notificationsCollapsed.increment();
+                CountlyPushPlugin.log("Collapsed queued notification {}", message.getId(), CountlyPushPlugin.LogLevel.DEBUG);
+            }
+            if (channel == PushChannel.BULK && bulkDueAt == 0) {
+                bulkDueAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CountlyPushPlugin.getBulkDelay());
+            }
+            if (drainScheduled && !(drainDeferred && channel != PushChannel.BULK)) {
+                return previous == null;
+            }
+            drainScheduled = true;
+            drainDeferred = false;
+            accepted = previous == null;
+        }
+        scheduler.execute(drainTask);
+        return accepted;
+    }
+
+    private boolean isQueued(String messageId) {
+        for (LinkedHashMap<String, Post> queue : queues.values()) {
+            if (queue.containsKey(messageId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized int getQueueDepth() {
+        int depth = 0;
+        for (LinkedHashMap<String, Post> queue : queues.values()) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    private void drain() {
+        while (true) {
+            long bulkWait = -1;
+            synchronized (this) {
+                drainDeferred = false;
+                if (next() == null && !summaryDirty) {
+                    if (queues.get(PushChannel.BULK).isEmpty()) {
+                        drainScheduled = false;
+                        return;
+                    }
+                    drainDeferred = true;
+                    bulkWait = Math.max(0, bulkDueAt - System.nanoTime());
+                }
+            }
+            if (bulkWait >= 0) {
+                scheduler.schedule(drainTask, bulkWait, TimeUnit.NANOSECONDS);
+                return;
+            }
+
+            long wait = bucket.tryAcquire(System.nanoTime());
+            if (wait > 0) {
+                scheduler.schedule(drainTask, wait, TimeUnit.NANOSECONDS);
+                return;
+            }
+
+            // Only this thread removes from the queues, so they can't have become empty meanwhile
+            // and there is no post only when the summary is waiting
+            Post post;
+            int remaining;
+            int bulkRemaining;
+            synchronized (this) {
+                LinkedHashMap<String, Post> queue = next();
+                post = null;
+                if (queue != null) {
+                    Iterator<Map.Entry<String, Post>> iterator = queue.entrySet().iterator();
+                    post = iterator.next().getValue();
+                    iterator.remove();
+                }
+                bulkRemaining = queues.get(PushChannel.BULK).size();
+                if (bulkRemaining == 0) {
+                    bulkDueAt = 0;
+                }
+                remaining = getQueueDepth();
+            }
+
+            if (post == null) {
+                postSummary();
+            } else {
+                postMessage(post, remaining, bulkRemaining);
+            }
+        }
+    }
+
+    /**
+     * @return first queue with a post to go out now, {@code null} if none
+     */
+    private LinkedHashMap<String, Post> next() {
+        for (PushChannel channel : PushChannel.values()) {
+            LinkedHashMap<String, Post> queue = queues.get(channel);
+            if (!queue.isEmpty() && (channel != PushChannel.BULK || System.nanoTime() - bulkDueAt >= 0)) {
+                return queue;
+            }
+        }
+        return null;
+    }
+
+    private void postMessage(Post post, int remaining, int bulkRemaining) {
+        if (post.channel == PushChannel.HIGH) {
+            show(post);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastPostAt > BURST_WINDOW_MS) {
+            burstSize = 0;
+            grouping = false;
+            groupSize = 0;
+            summaryLines.clear();
+        }
+        lastPostAt = now;
+        burstSize++;
+
+        if (!grouping && (burstSize + remaining >= GROUP_THRESHOLD || (post.channel == PushChannel.BULK && bulkRemaining > 0))) {
+            grouping = true;
+        }
+        if (grouping) {
+            renderer.group(post.builder);
+            groupSize++;
+            summaryLines.addFirst(post.message.getTitle() == null ? post.message.getMessage() : post.message.getTitle());
+            if (summaryLines.size() > SUMMARY_LINES) {
+                summaryLines.removeLast();
+            }
+            summaryDirty = true;
+        }
+        show(post);
+    }
+
+    private void show(Post post) {
+        try {
+            renderer.post(post.message, post.builder.build());
+            dedup.markSeen(post.message.getId(), System.currentTimeMillis());
+            if (post.channel == PushChannel.BULK) {
+                held.release(post.message.getId());
+            }
+            PushMetrics.notificationsPosted.increment();
+            PushMetrics.receiveToPost.recordSince(post.submittedAt);
+            PushMetrics.markPosted();
+        } catch (Throwable t) {
+            CountlyPushPlugin.log("Cannot post notification " + post.message.getId(), t, CountlyPushPlugin.LogLevel.ERROR);
+        }
+    }
+
+    private void postSummary() {
+        summaryDirty = false;
+        try {
+            renderer.postSummary(summaryLines, groupSize);
+        } catch (Throwable t) {
+            CountlyPushPlugin.log("Cannot post notification summary", t, CountlyPushPlugin.LogLevel.ERROR);
+        }
+    }
+
+    private static class Post {
+        final CountlyPushPlugin.Message message;
+        final Notification.Builder builder;
+        final PushChannel channel;
+        final long submittedAt;
+
+        Post(CountlyPushPlugin.Message message, Notification.Builder builder, PushChannel channel, long submittedAt) {
+            this.message = message;
+            this.builder = builder;
+            this.channel = channel;
+            this.submittedAt = submittedAt;
+        }
+    }
+}
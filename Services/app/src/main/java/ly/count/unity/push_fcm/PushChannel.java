@@ -0,0 +1,60 @@
+package ly.count.unity.push_fcm;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+
+/**
+ * Notification channels Countly messages are routed to by their {@link CountlyPushPlugin#KEY_PRIORITY} value.
+ * Channel names and descriptions are string resources, so apps can override them; channels are
+ * created by {@link NotificationResources#ensureChannel(PushChannel)} on first use only.
+ *
+ * Declaration order is also posting order: {@link PostScheduler} drains high priority messages first.
+ */
+enum PushChannel {
+    /**
+     * Transactional messages: no media download, posted ahead of everything else and never grouped.
+     */
+    HIGH("high", CountlyPushPlugin.CHANNEL_ID + ".HIGH", R.string.countly_channel_high_name, R.string.countly_channel_high_description,
+            NotificationManager.IMPORTANCE_HIGH, Notification.PRIORITY_HIGH),
+    DEFAULT(null, CountlyPushPlugin.CHANNEL_ID, R.string.countly_hannel_name, R.string.countly_channel_description,
+            NotificationManager.IMPORTANCE_DEFAULT, Notification.PRIORITY_DEFAULT),
+    /**
+     * Marketing messages: processed on a background priority thread, held back for a while and posted as a group.
+     */
+    BULK("bulk", CountlyPushPlugin.CHANNEL_ID + ".BULK", R.string.countly_channel_bulk_name, R.string.countly_channel_bulk_description,
+            NotificationManager.IMPORTANCE_LOW, Notification.PRIORITY_LOW);
+
+    /** {@link CountlyPushPlugin#KEY_PRIORITY} value selecting this channel */
+    final String value;
+    final String id;
+    final int name;
+    final int description;
+    /** Channel importance on Android 8 and later */
+    final int importance;
+    /** Notification priority before Android 8 */
+    final int priority;
+
+    PushChannel(String value, String id, int name, int description, int importance, int priority) {
+        this.value = value;
+        this.id = id;
+        this.name = name;
+        this.description = description;
+        this.importance = importance;
+        this.priority = priority;
+    }
+
+    /**
+     * @param value {@link CountlyPushPlugin#KEY_PRIORITY} value, may be {@code null}
+     * @return matching channel, {@link #DEFAULT} for missing or unknown values
+     */
+    static PushChannel forValue(String value) {
+        if (value != null) {
+            for (PushChannel channel : values()) {
+                if (value.equals(channel.value)) {
+                    return channel;
+                }
+            }
+        }
+        return DEFAULT;
+    }
+}
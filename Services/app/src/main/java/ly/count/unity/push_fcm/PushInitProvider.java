@@ -0,0 +1,47 @@
+package ly.count.unity.push_fcm;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+/**
+ * Starts {@link PushWarmup} and registers {@link ClickTracker} at process start, before the FCM service
+ * or Unity activity is created. Providers are created on the main thread, so this only starts the background work and returns.
+ * Without it notification clicks go through {@link NotificationBroadcastReceiver}, as nothing would record them in the opened activity.
+ * Apps that don't want the warm-up can drop it from the merged manifest with {@code tools:node="remove"}.
+ */
+public class PushInitProvider extends ContentProvider {
+    @Override
+    public boolean onCreate() {
+        // Before any activity is created, so a click opening the app is seen however the process was started
+        ClickTracker.register(getContext());
+        PushWarmup.start(getContext());
+        return true;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        return null;
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        return 0;
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        return 0;
+    }
+}
@@ -0,0 +1,217 @@
+package ly.count.unity.push_fcm;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of the Android push path. Updates are lock-free so they
+ * can be recorded from any thread on the hot path. Unity side reads everything at once
+ * with {@link #snapshot()}.
+ */
+public final class PushMetrics {
+    public static final Counter messagesReceived = new Counter();
+    public static final Counter duplicatesDropped = new Counter();
+    public static final Counter messagesExpired = new Counter();
+    public static final Counter decodeFailures = new Counter();
+    public static final Counter badBadge = new Counter();
+    public static final Counter badLink = new Counter();
+    public static final Counter badMedia = new Counter();
+    public static final Counter badPayload = new Counter();
+    public static final Counter notificationsPosted = new Counter();
+    public static final Counter notificationsCollapsed = new Counter();
+    public static final Counter actionsMerged = new Counter();
+    public static final Counter actionsTrimmed = new Counter();
+
+    public static final Histogram receiveToPost = new Histogram();
+    public static final Histogram bitmapDecode = new Histogram();
+    public static final Histogram storeWrite = new Histogram();
+    public static final Histogram warmup = new Histogram();
+    public static final Histogram clickToStart = new Histogram();
+    public static final Histogram clickWork = new Histogram();
+    public static final Histogram tapToFrameDirect = new Histogram();
+    public static final Histogram tapToFrameBroadcast = new Histogram();
+
+    private static final AtomicLong storeBacklog = new AtomicLong();
+
+    // System.nanoTime() of startup events, 0 until they happen
+    private static final AtomicLong processStartedAt = new AtomicLong();
+    private static final AtomicLong firstReceivedAt = new AtomicLong();
+    private static final AtomicLong firstPostedAt = new AtomicLong();
+    private static volatile boolean firstReceivedWarm;
+
+    private PushMetrics() {
+    }
+
+    static void setStoreBacklog(long records) {
+        storeBacklog.set(records);
+    }
+
+    static void setProcessStart(long nanos) {
+        processStartedAt.compareAndSet(0, nanos);
+    }
+
+    /**
+     * @return {@link System#nanoTime()} of process start, 0 if not known
+     */
+    static long getProcessStart() {
+        return processStartedAt.get();
+    }
+
+    static boolean hasReceived() {
+        return firstReceivedAt.get() != 0;
+    }
+
+    /**
+     * Called for every push received, only the first one in the process is recorded.
+     *
+     * @param warm whether {@link PushWarmup} had finished by then
+     */
+    static void markReceived(boolean warm) {
+        if (firstReceivedAt.get() == 0 && firstReceivedAt.compareAndSet(0, System.nanoTime())) {
+            firstReceivedWarm = warm;
+        }
+    }
+
+    /**
+     * Called for every notification posted, only the first one in the process is recorded.
+     */
+    static void markPosted() {
+        if (firstPostedAt.get() == 0) {
+            firstPostedAt.compareAndSet(0, System.nanoTime());
+        }
+    }
+
+    /**
+     * All metrics as JSON: counters as numbers, histograms as {@code {count, sum_us, max_us, buckets}}
+     * where {@code buckets[i]} counts samples below {@code bucket_bounds_us[i]} (last one is unbounded),
+     * gauges as their current value. {@code startup} holds the cold start timing of this process:
+     * {@code first_receive_to_post_us} compared between {@code first_push_warm} true and false
+     * shows what warm-up saves on time-to-notification, {@code -1} when not known yet.
+     *
+     * @return JSON object string
+     */
+    public static String snapshot() {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("messages_received", messagesReceived.get());
+            json.put("duplicates_dropped", duplicatesDropped.get());
+            json.put("messages_expired", messagesExpired.get());
+            json.put("decode_failures", decodeFailures.get());
+            json.put("bad_badge", badBadge.get());
+            json.put("bad_link", badLink.get());
+            json.put("bad_media", badMedia.get());
+            json.put("bad_payload", badPayload.get());
+            json.put("notifications_posted", notificationsPosted.get());
+            json.put("notifications_collapsed", notificationsCollapsed.get());
+            json.put("actions_merged", actionsMerged.get());
+            json.put("actions_trimmed", actionsTrimmed.get());
+
+            json.put("receive_to_post", receiveToPost.toJson());
+            json.put("bitmap_decode", bitmapDecode.toJson());
+            json.put("store_write", storeWrite.toJson());
+            json.put("click_to_start", clickToStart.toJson());
+            json.put("click_work", clickWork.toJson());
+            json.put("tap_to_frame_direct", tapToFrameDirect.toJson());
+            json.put("tap_to_frame_broadcast", tapToFrameBroadcast.toJson());
+
+            json.put("store_backlog", storeBacklog.get());
+            json.put("bridge_queue_depth", UnityBridge.getInstance().getQueueDepth());
+            json.put("pipeline_queue_depth", NotificationPipeline.getQueueDepth());
+            json.put("startup", startupJson());
+
+            JSONArray bounds = new JSONArray();
+            for (long bound : Histogram.BOUNDS_US) {
+                bounds.put(bound);
+            }
+            json.put("bucket_bounds_us", bounds);
+            return json.toString();
+        } catch (JSONException e) {
+            CountlyPushPlugin.log("Cannot build metrics snapshot", e, CountlyPushPlugin.LogLevel.WARNING);
+            return null;
+        }
+    }
+
+    private static JSONObject startupJson() throws JSONException {
+        long started = processStartedAt.get();
+        long received = firstReceivedAt.get();
+        long posted = firstPostedAt.get();
+
+        JSONObject json = new JSONObject();
+        json.put("warmup", warmup.toJson());
+        json.put("first_push_warm", received != 0 && firstReceivedWarm);
+        json.put("first_receive_to_post_us", received != 0 && posted >= received ? (posted - received) / 1000 : -1);
+        json.put("start_to_first_post_us", started != 0 && posted != 0 ? (posted - started) / 1000 : -1);
+        return json;
+    }
+
+    public static final class Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        void increment() {
+            value.incrementAndGet();
+        }
+
+        void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * Fixed exponential buckets from 100us to 5s.
+     */
+    public static final class Histogram {
+        static final long[] BOUNDS_US = {100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000, 2500000, 5000000};
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_US.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * @param startNanos {@link System#nanoTime()} when the measured operation started
+         */
+        void recordSince(long startNanos) {
+            record((System.nanoTime() - startNanos) / 1000);
+        }
+
+        void record(long micros) {
+            int bucket = 0;
+            while (bucket < BOUNDS_US.length && micros >= BOUNDS_US[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sum.addAndGet(micros);
+
+            long current;
+            while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+                // retry until our value is stored or a bigger one is
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("count", count.get());
+            json.put("sum_us", sum.get());
+            json.put("max_us", max.get());
+            JSONArray values = new JSONArray();
+            for (int i = 0; i < buckets.length(); i++) {
+                values.put(buckets.get(i));
+            }
+            json.put("buckets", values);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package ly.count.unity.push_fcm;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms up what the first push after a cold start would otherwise pay for one after another: class loading
+ * and {@code org.json}, disk loads of the stores and the large icon decode. Notification channels are left to the
+ * first post, so a start that shows no notification doesn't create one. Runs on two
+ * background threads, one for disk and one for the rest, started at process start by {@link PushInitProvider}, or
+ * where it isn't declared, as in the Unity plugin, when {@link RemoteNotificationsService} is created.
+ * Everything warmed here is also initialized lazily on first use, so a push arriving halfway only waits
+ * for the part it needs. Failures are logged and otherwise ignored, the lazy path retries them.
+ */
+final class PushWarmup {
+    private static final int THREADS = 2;
+
+    private static volatile Future<Void> ready;
+
+    private PushWarmup() {
+    }
+
+    /**
+     * Start warm-up unless it's started already.
+     *
+     * @return future completed once warm-up is done, never failing
+     */
+    static synchronized Future<Void> start(Context context) {
+        if (ready != null) {
+            return ready;
+        }
+        final long start = System.nanoTime();
+        PushMetrics.setProcessStart(processStart(start));
+        final Context applicationContext = context.getApplicationContext();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "CountlyPushWarmup");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final Future<?> stores = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                warmStores(applicationContext);
+            }
+        });
+        final Future<?> notifications = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                warmNotifications(applicationContext);
+            }
+        });
+        FutureTask<Void> readiness = new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                stores.get();
+                notifications.get();
+                PushMetrics.warmup.recordSince(start);
+                CountlyPushPlugin.log("Push warm-up done in {}ms",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), CountlyPushPlugin.LogLevel.DEBUG);
+                return null;
+            }
+        });
+        // Runs once either task frees a thread and waits for the other one there
+        executor.execute(readiness);
+        executor.shutdown();
+
+        ready = readiness;
+        return ready;
+    }
+
+    static boolean isReady() {
+        Future<Void> future = ready;
+        return future != null && future.isDone();
+    }
+
+    private static void warmStores(Context context) {
+        try {
+            MessageStore.init(context);
+            DedupIndex.getInstance(context);
+            PayloadStore.init(context);
+            TokenManager.getInstance(context);
+            PendingIntentRegistry.getInstance(context);
+        } catch (Throwable t) {
+            CountlyPushPlugin.log("Push store warm-up failed", t, CountlyPushPlugin.LogLevel.WARNING);
+        }
+    }
+
+    private static void warmNotifications(Context context) {
+        try {
+            // Decoding a sample message loads the message, button and parser classes
+            Map<String, String> sample = new HashMap<>();
+            sample.put(CountlyPushPlugin.KEY_ID, "warmup");
+            sample.put(CountlyPushPlugin.KEY_TITLE, "warmup");
+            sample.put(CountlyPushPlugin.KEY_LINK, "https://count.ly");
+            sample.put(CountlyPushPlugin.KEY_BUTTONS, "[{\"t\":\"Open\",\"l\":\"https://count.ly\"}]");
+            CountlyPushPlugin.Message message = CountlyPushPlugin.decodeMessage(sample);
+            message.getLink();
+            message.getButtons();
+
+            new JSONObject().put("warmup", new JSONArray("[1]")).toString();
+
+            NotificationPipeline.getInstance(context);
+            NotificationResources resources = NotificationResources.getInstance(context);
+            resources.getLargeIcon();
+            resources.getSound();
+            resources.getColor();
+        } catch (Throwable t) {
+            CountlyPushPlugin.log("Push notification warm-up failed", t, CountlyPushPlugin.LogLevel.WARNING);
+        }
+    }
+
+    /**
+     * {@link System#nanoTime()} of process start where Android tells it, otherwise {@code now}.
+     */
+    private static long processStart(long now) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return now - TimeUnit.MILLISECONDS.toNanos(SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime());
+        }
+        return now;
+    }
+}
@@ -1,142 +1,81 @@
 package ly.count.unity.push_fcm;
 
-import android.app.Notification;
-import android.app.NotificationChannel;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
+import android.app.Activity;
 import android.content.Context;
-import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Color;
-import android.media.RingtoneManager;
-import android.net.Uri;
-import android.os.Build;
 
-import com.google.android.gms.tasks.OnCompleteListener;
-import com.google.android.gms.tasks.Task;
-import com.google.firebase.iid.FirebaseInstanceId;
-import com.google.firebase.iid.InstanceIdResult;
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
 import com.unity3d.player.UnityPlayer;
 
-import org.json.JSONObject;
-
 import java.util.Map;
 
 public class RemoteNotificationsService extends FirebaseMessagingService {
 
-    private void createNotificationChannel() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            // Register the channel with the system; you can't change the importance
-            // or other notification behaviors after this
-            NotificationManager notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-            if (notificationManager != null) {
-                // Create the NotificationChannel
-                NotificationChannel channel =
-                        new NotificationChannel(CountlyPushPlugin.CHANNEL_ID, getString(R.string.countly_hannel_name), NotificationManager.IMPORTANCE_DEFAULT);
-                channel.setDescription(getString(R.string.countly_channel_description));
-
-                channel.setLightColor(Color.GREEN);
-                notificationManager.createNotificationChannel(channel);
-
-                CountlyPushPlugin.log("NotificationChannel Created", CountlyPushPlugin.LogLevel.DEBUG);
-            }
-        }
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // Apps without PushInitProvider, such as Unity ones, warm up once a push starts the service
+        PushWarmup.start(this);
     }
 
+    /**
+     * @deprecated use {@link TokenManager#requestToken(Context, String, int)}, this one can't tell device ids or test modes apart
+     */
+    @Deprecated
     public void getToken() {
-        FirebaseInstanceId.getInstance().getInstanceId().addOnCompleteListener(new OnCompleteListener<InstanceIdResult>() {
-            @Override
-            public void onComplete(Task<InstanceIdResult> task) {
-                if (!task.isSuccessful()) {
-                    CountlyPushPlugin.log("getInstanceId failed", task.getException(), CountlyPushPlugin.LogLevel.DEBUG);
-                    return;
-                }
+        Activity activity = UnityPlayer.currentActivity;
+        if (activity == null) {
+            CountlyPushPlugin.log("getToken called without Unity activity", CountlyPushPlugin.LogLevel.WARNING);
+            return;
+        }
+        TokenManager.requestToken(activity, null, 0);
+    }
 
-                // Get new Instance ID token
-                String token = task.getResult().getToken();
-                CountlyPushPlugin.log("Firebase token: " + token, CountlyPushPlugin.LogLevel.DEBUG);
-                UnityPlayer.UnitySendMessage(CountlyPushPlugin.UNITY_ANDROID_BRIDGE, "OnTokenResult", token);
-            }
-        });
+    @Override
+    public void onNewToken(String token) {
+        TokenManager.getInstance(getApplicationContext()).onNewToken(token);
     }
 
     @Override
     public void onMessageReceived(RemoteMessage remoteMessage) {
         Map<String, String> data = remoteMessage.getData();
+        PushMetrics.messagesReceived.increment();
 
-        CountlyPushPlugin.log("Message id: " + remoteMessage.getMessageId(), CountlyPushPlugin.LogLevel.DEBUG);
-        CountlyPushPlugin.log("Message type: " + remoteMessage.getMessageType(), CountlyPushPlugin.LogLevel.DEBUG);
-        CountlyPushPlugin.log("Message from: " + remoteMessage.getFrom(), CountlyPushPlugin.LogLevel.DEBUG);
-        if (!data.isEmpty()) {
-            JSONObject jsonObject = new JSONObject(remoteMessage.getData());
-            UnityPlayer.UnitySendMessage(CountlyPushPlugin.UNITY_ANDROID_BRIDGE, "OnNotificationReceived", jsonObject.toString());
-            CountlyPushPlugin.log("Message data: " + jsonObject.toString(), CountlyPushPlugin.LogLevel.DEBUG);
-        }
-
-        if (!data.isEmpty())
-            ProcessData(data);
-    }
-
-    private void ProcessData(Map<String, String> data) {
-
-        CountlyPushPlugin.Message message = CountlyPushPlugin.decodeMessage(data);
-        CountlyPushPlugin.log("Message Impl " + message.toString(), CountlyPushPlugin.LogLevel.DEBUG);
-        sendNotification(message);
-    }
+        CountlyPushPlugin.log("Message id: {}, type: {}, from: {}",
+                remoteMessage.getMessageId(), remoteMessage.getMessageType(), remoteMessage.getFrom(), CountlyPushPlugin.LogLevel.DEBUG);
 
-    private void sendNotification(CountlyPushPlugin.Message message) {
-        Uri notificationSound = RingtoneManager.getDefaultUri(R.raw.boing);
-        NotificationManager notificationManager =
-                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-        Notification.Builder notificationBuilder;
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
-            NotificationChannel channel = notificationManager.getNotificationChannel(CountlyPushPlugin.CHANNEL_ID);
-            if (channel == null) {
-                createNotificationChannel();
-            }
-            notificationBuilder = new Notification.Builder(this, CountlyPushPlugin.CHANNEL_ID);
-        } else {
-            notificationBuilder = new Notification.Builder(this);
+        if (!accept(data, DedupIndex.getInstance(getApplicationContext()), System.currentTimeMillis())) {
+            return;
         }
 
-        Bitmap largeIconBitmap = BitmapFactory.decodeResource(getResources(),
-                R.drawable.ic_stat);
-
-        Intent notificationIntent = new Intent(this.getApplicationContext(), NotificationBroadcastReceiver.class);
-
-        String messageId = message.getId();
-        notificationIntent.putExtra(CountlyPushPlugin.KEY_ID, messageId);
-        notificationIntent.putExtra(CountlyPushPlugin.EXTRA_MESSAGE, message);
-        notificationIntent.putExtra(CountlyPushPlugin.EXTRA_ACTION_INDEX, 0);
-
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(this.getApplicationContext(), message.hashCode(), notificationIntent, PendingIntent.FLAG_CANCEL_CURRENT);
-
-        notificationBuilder
-                .setAutoCancel(true)
-                .setSound(notificationSound)
-                .setLargeIcon(largeIconBitmap)
-                .setContentIntent(pendingIntent)
-                .setSmallIcon(R.drawable.ic_stat)
-                .setContentTitle(message.getTitle())
-                .setContentText(message.getMessage());
-
-        if (android.os.Build.VERSION.SDK_INT > 21) {
-            notificationBuilder.setColor(getResources().getColor(R.color.color_notification));
+        if (!data.isEmpty()) {
+            PushMetrics.markReceived(PushWarmup.isReady());
+            // Decoding, forwarding to Unity, rendering and posting happen on the pipeline workers
+            NotificationPipeline.getInstance(getApplicationContext()).submit(data);
         }
+    }
 
-        for (int i = 0; i < message.getButtons().size(); i++) {
-            CountlyPushPlugin.Message.Button button = message.getButtons().get(i);
-            Intent buttonIntent = (Intent) notificationIntent.clone();
-            buttonIntent.putExtra(CountlyPushPlugin.EXTRA_ACTION_INDEX, i + 1);
-
-            if (android.os.Build.VERSION.SDK_INT > 16) {
-                notificationBuilder.addAction(button.getIcon(), button.getTitle(), PendingIntent.getBroadcast(this.getApplicationContext(), message.hashCode() + i + 1, buttonIntent, PendingIntent.FLAG_CANCEL_CURRENT));
-            }
+    /**
+     * Checks done on the FCM thread before anything else. The id is only marked as seen by {@link PostScheduler}
+     * once the notification is posted: a push lost to a failure or process death before that is still shown when
+     * FCM delivers it again, and a redelivery arriving while the first one is still queued is collapsed there.
+     *
+     * @return {@code false} if the push is to be dropped
+     */
+    static boolean accept(Map<String, String> data, DedupIndex dedup, long now) {
+        // Reconnecting devices get everything queued while offline, don't spend anything on what's gone stale
+        if (CountlyPushPlugin.Message.isExpired(data, now)) {
+            PushMetrics.messagesExpired.increment();
+            CountlyPushPlugin.log("Dropping expired message {}", data.get(CountlyPushPlugin.KEY_ID), CountlyPushPlugin.LogLevel.DEBUG);
+            return false;
         }
 
-        notificationManager.notify(messageId, 0, notificationBuilder.build());
+        String messageId = data.get(CountlyPushPlugin.KEY_ID);
+        if (messageId != null && dedup.isSeen(messageId, now)) {
+            PushMetrics.duplicatesDropped.increment();
+            CountlyPushPlugin.log("Dropping redelivered message {}", messageId, CountlyPushPlugin.LogLevel.DEBUG);
+            return false;
+        }
+        return true;
     }
 }
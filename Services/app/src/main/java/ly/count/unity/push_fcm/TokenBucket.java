@@ -0,0 +1,39 @@
+package ly.count.unity.push_fcm;
+
+/**
+ * Classic token bucket: up to {@code capacity} operations at once, refilled continuously at a fixed rate.
+ * Time is passed in by the caller as {@link System#nanoTime()} so the bucket has no clock of its own.
+ */
+class TokenBucket {
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long refilledAt;
+
+    TokenBucket(int capacity, double tokensPerSecond, long nowNanos) {
+        if (capacity <= 0 || tokensPerSecond <= 0) {
+            throw new IllegalArgumentException("capacity and rate must be positive");
+        }
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / 1000000000d;
+        this.tokens = capacity;
+        this.refilledAt = nowNanos;
+    }
+
+    /**
+     * Take a token if there is one.
+     *
+     * @return {@code 0} if a token was taken, otherwise nanoseconds until the next one is available
+     */
+    synchronized long tryAcquire(long nowNanos) {
+        if (nowNanos > refilledAt) {
+            tokens = Math.min(capacity, tokens + (nowNanos - refilledAt) * tokensPerNano);
+            refilledAt = nowNanos;
+        }
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerNano));
+    }
+}
@@ -0,0 +1,142 @@
+package ly.count.unity.push_fcm;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.iid.FirebaseInstanceId;
+import com.google.firebase.iid.InstanceIdResult;
+
+/**
+ * Keeps the last known FCM token and hands it to Unity only when it differs from the one Unity last
+ * confirmed for the same device id and test mode, so an unchanged token isn't uploaded again on every start.
+ * Unity confirms a token once the server accepted it; one that failed to upload is delivered again at the next start.
+ *
+ * A request is answered from the persisted token right away, then checked against Firebase in the background;
+ * concurrent requests share one Firebase lookup. Tokens rotated by FCM arrive through {@link #onNewToken(String)}.
+ */
+public class TokenManager {
+    private static final String PREFERENCES = "countly_push_token";
+    private static final String PREF_TOKEN = "token";
+    private static final String PREF_CONFIRMED = "confirmed";
+
+    private static TokenManager instance;
+
+    private final SharedPreferences preferences;
+    private String token;
+    // Device id and test mode of the latest request, null until Unity asks for the token
+    private String subscriber;
+    // Token and subscriber posted to Unity but not confirmed yet, not to post them twice
+    private String pendingKey;
+    private boolean fetching;
+
+    static synchronized TokenManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new TokenManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private TokenManager(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        token = preferences.getString(PREF_TOKEN, null);
+    }
+
+    /**
+     * Called from Unity to get the token delivered through {@link UnityBridge} if Unity doesn't have it yet.
+     *
+     * @param deviceId Countly device id the token is going to be registered for
+     * @param mode {@code test_mode} value the token is going to be registered with
+     */
+    public static void requestToken(Context context, String deviceId, int mode) {
+        getInstance(context).request(deviceId, mode);
+    }
+
+    /**
+     * Called from Unity once the server accepted the token, so it isn't delivered again for this device id and mode.
+     */
+    public static void confirmToken(Context context, String token, String deviceId, int mode) {
+        getInstance(context).confirm(token, deviceId, mode);
+    }
+
+    void request(String deviceId, int mode) {
+        String cached;
+        synchronized (this) {
+            subscriber = subscriber(deviceId, mode);
+            cached = token;
+        }
+        if (cached != null) {
+            deliverIfChanged(cached);
+        }
+        fetch();
+    }
+
+    synchronized void confirm(String token, String deviceId, int mode) {
+        String key = key(token, subscriber(deviceId, mode));
+        preferences.edit().putString(PREF_CONFIRMED, key).apply();
+        if (key.equals(pendingKey)) {
+            pendingKey = null;
+        }
+    }
+
+    void onNewToken(String newToken) {
+        if (newToken == null) {
+            return;
+        }
+        synchronized (this) {
+            if (!newToken.equals(token)) {
+                token = newToken;
+                preferences.edit().putString(PREF_TOKEN, newToken).apply();
+                CountlyPushPlugin.log("FCM token updated", CountlyPushPlugin.LogLevel.DEBUG);
+            }
+        }
+        deliverIfChanged(newToken);
+    }
+
+    private void fetch() {
+        synchronized (this) {
+            if (fetching) {
+                return;
+            }
+            fetching = true;
+        }
+        FirebaseInstanceId.getInstance().getInstanceId().addOnCompleteListener(new OnCompleteListener<InstanceIdResult>() {
+            @Override
+            public void onComplete(Task<InstanceIdResult> task) {
+                synchronized (TokenManager.this) {
+                    fetching = false;
+                }
+                if (!task.isSuccessful()) {
+                    CountlyPushPlugin.log("getInstanceId failed", task.getException(), CountlyPushPlugin.LogLevel.DEBUG);
+                    return;
+                }
+                onNewToken(task.getResult().getToken());
+            }
+        });
+    }
+
+    private void deliverIfChanged(String value) {
+        synchronized (this) {
+            if (subscriber == null) {
+                return;
+            }
+            String key = key(value, subscriber);
+            if (key.equals(pendingKey) || key.equals(preferences.getString(PREF_CONFIRMED, null))) {
+                CountlyPushPlugin.log("FCM token unchanged, not delivering", CountlyPushPlugin.LogLevel.VERBOSE);
+                return;
+            }
+            pendingKey = key;
+        }
+        CountlyPushPlugin.log("Firebase token: {}", value, CountlyPushPlugin.LogLevel.DEBUG);
+        UnityBridge.getInstance().postToken(value);
+    }
+
+    private static String subscriber(String deviceId, int mode) {
+        return (deviceId == null ? "" : deviceId) + '\n' + mode;
+    }
+
+    private static String key(String token, String subscriber) {
+        return subscriber + '\n' + token;
+    }
+}
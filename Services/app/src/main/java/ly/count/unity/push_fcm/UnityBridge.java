@@ -0,0 +1,226 @@
+package ly.count.unity.push_fcm;
+
+import com.unity3d.player.UnityPlayer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers push events to Unity side in batches. Events are queued and sent as one
+ * {@code OnBridgeEvents} message per {@link #FLUSH_INTERVAL_MS}, serialized off the caller thread.
+ * A newer token replaces a queued one and a redelivered message replaces its queued receive event.
+ * Until Unity side calls {@link #attach()} events are buffered, then replayed.
+ */
+public class UnityBridge {
+    static final String EVENT_TOKEN = "token";
+    static final String EVENT_RECEIVED = "received";
+    static final String EVENT_CLICKED = "clicked";
+
+    private static final long FLUSH_INTERVAL_MS = 100;
+    private static final long PLAYER_RETRY_MS = 1000;
+    private static final int MAX_BUFFERED_EVENTS = 256;
+
+    private static final UnityBridge instance = new UnityBridge();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "CountlyPushBridge");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    private final List<Event> pending = new ArrayList<>();
+    private boolean flushScheduled;
+    private volatile boolean attached;
+
+    private UnityBridge() {
+    }
+
+    static UnityBridge getInstance() {
+        return instance;
+    }
+
+    /**
+     * Called from Unity once its bridge object exists, replays everything buffered until now.
+     */
+    public static void attach() {
+        CountlyPushPlugin.log("UnityBridge attached", CountlyPushPlugin.LogLevel.DEBUG);
+        instance.attached = true;
+        instance.scheduleFlush(0);
+    }
+
+    /**
+     * Called from Unity when its bridge object goes away, events are buffered until next {@link #attach()}.
+     */
+    public static void detach() {
+        instance.attached = false;
+    }
+
+    void postToken(String token) {
+        enqueue(new Event(EVENT_TOKEN, null, token, null, 0));
+    }
+
+    void postReceived(Map<String, String> data) {
+        enqueue(new Event(EVENT_RECEIVED, data.get(CountlyPushPlugin.KEY_ID), null, data, 0));
+    }
+
+    /**
+     * Receive event of a decoded message, its data is only expanded once the event is actually sent.
+     */
+    void postReceived(CountlyPushPlugin.Message message) {
+        enqueue(Event.received(message));
+    }
+
+    void postClicked(Map<String, String> data, int index) {
+        enqueue(new Event(EVENT_CLICKED, null, null, data, index));
+    }
+
+    synchronized int getQueueDepth() {
+        return pending.size();
+    }
+
+    private void enqueue(Event event) {
+        synchronized (this) {
+            coalesce(event);
+            pending.add(event);
+            if (pending.size() > MAX_BUFFERED_EVENTS) {
+                dropOldest();
+            }
+        }
+        scheduleFlush(FLUSH_INTERVAL_MS);
+    }
+
+    private void coalesce(Event event) {
+        if (!EVENT_TOKEN.equals(event.type) && (event.messageId == null || !EVENT_RECEIVED.equals(event.type))) {
+            return;
+        }
+        Iterator<Event> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            Event queued = iterator.next();
+            if (queued.type.equals(event.type) && (EVENT_TOKEN.equals(event.type) || event.messageId.equals(queued.messageId))) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Receive events are the cheapest to lose since their messages are still on the shade, clicks go last.
+     */
+    private void dropOldest() {
+        for (int i = 0; i < pending.size(); i++) {
+            if (EVENT_RECEIVED.equals(pending.get(i).type)) {
+                pending.remove(i);
+                return;
+            }
+        }
+        pending.remove(0);
+    }
+
+    private void scheduleFlush(long delayMs) {
+        synchronized (this) {
+            if (flushScheduled || pending.isEmpty()) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        scheduler.schedule(flushTask, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        List<Event> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            if (!attached || pending.isEmpty()) {
+                return;
+            }
+            if (UnityPlayer.currentActivity == null) {
+                // Player is attached but its activity is gone for now, check back later
+                scheduleFlush(PLAYER_RETRY_MS);
+                return;
+            }
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+
+        UnityPlayer.UnitySendMessage(CountlyPushPlugin.UNITY_ANDROID_BRIDGE, "OnBridgeEvents", serialize(batch));
+        CountlyPushPlugin.log("UnityBridge flushed {} events", batch.size(), CountlyPushPlugin.LogLevel.DEBUG);
+    }
+
+    /**
+     * @return JSON array of events in the format Unity side bridge parses
+     */
+    static String serialize(List<Event> batch) {
+        JSONArray events = new JSONArray();
+        for (Event event : batch) {
+            try {
+                events.put(event.toJson());
+            } catch (JSONException e) {
+                CountlyPushPlugin.log("Cannot serialize bridge event " + event.type, e, CountlyPushPlugin.LogLevel.WARNING);
+            }
+        }
+        return events.toString();
+    }
+
+    static class Event {
+        final String type;
+        final String messageId;
+        final String token;
+        private final Map<String, String> data;
+        // Source of data when it's left to serialization
+        private final CountlyPushPlugin.Message message;
+        final int clickIndex;
+
+        Event(String type, String messageId, String token, Map<String, String> data, int clickIndex) {
+            this(type, messageId, token, data, null, clickIndex);
+        }
+
+        static Event received(CountlyPushPlugin.Message message) {
+            return new Event(EVENT_RECEIVED, message.getId(), null, null, message, 0);
+        }
+
+        private Event(String type, String messageId, String token, Map<String, String> data, CountlyPushPlugin.Message message, int clickIndex) {
+            this.type = type;
+            this.messageId = messageId;
+            this.token = token;
+            this.data = data;
+            this.message = message;
+            this.clickIndex = clickIndex;
+        }
+
+        Map<String, String> data() {
+            return message == null ? data : message.getData();
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("e", type);
+            if (EVENT_TOKEN.equals(type)) {
+                json.put("d", token);
+            } else {
+                JSONObject payload = new JSONObject(data());
+                if (EVENT_CLICKED.equals(type)) {
+                    payload.put("click_index", clickIndex);
+                }
+                json.put("d", payload);
+            }
+            return json;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package ly.count.unity.push_fcm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ActionJournalTest {
+    private static final long NOW = 1700000000000L;
+    private static final long DAY = 24 * 3600 * 1000L;
+
+    private File file;
+    private ActionJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("actions", ".journal");
+        assertTrue(file.delete());
+        journal = new ActionJournal(file, ActionJournal.FsyncPolicy.NEVER);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        journal.close();
+        file.delete();
+        new File(file.getPath() + ".lock").delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void append_mergesReplayedAction() throws IOException {
+        assertEquals(2, journal.append(Arrays.asList(record("m1", 0, NOW), record("m1", 1, NOW), record("m1", 0, NOW))));
+        assertEquals(0, journal.append(Arrays.asList(record("m1", 1, NOW))));
+        assertEquals(2, journal.count());
+
+        // Once uploaded, the same action is a new one
+        journal.ack(journal.readBatch(0, 1).nextCursor);
+        assertEquals(1, journal.append(Arrays.asList(record("m1", 0, NOW))));
+        assertEquals(0, journal.append(Arrays.asList(record("m1", 1, NOW))));
+        assertEquals(2, journal.count());
+    }
+
+    @Test
+    public void append_keepsRepeatedClick() throws IOException {
+        journal.append(record("m1", 0, NOW));
+        // Same button clicked again later, e.g. on a notification that isn't cancelled on click
+        assertEquals(1, journal.append(Arrays.asList(record("m1", 0, NOW + 5000))));
+        assertEquals(0, journal.append(Arrays.asList(record("m1", 0, NOW + 5000))));
+
+        List<ActionRecord> records = journal.readAll();
+        assertEquals(2, records.size());
+        assertEquals(NOW, records.get(0).timestamp);
+        assertEquals(NOW + 5000, records.get(1).timestamp);
+    }
+
+    @Test
+    public void append_mergesActionsStoredByAnotherJournal() throws IOException {
+        journal.append(record("m1", 0, NOW));
+
+        ActionJournal other = new ActionJournal(file, ActionJournal.FsyncPolicy.NEVER);
+        try {
+            assertEquals(0, other.append(Arrays.asList(record("m1", 0, NOW))));
+            assertEquals(1, other.append(Arrays.asList(record("m2", 0, NOW))));
+        } finally {
+            other.close();
+        }
+        assertEquals(0, journal.append(Arrays.asList(record("m2", 0, NOW))));
+        assertEquals(2, journal.count());
+    }
+
+    @Test
+    public void append_periodicForcesLastRecordsAfterInterval() throws Exception {
+        journal.setFsyncPolicy(ActionJournal.FsyncPolicy.PERIODIC);
+        journal.append(record("m1", 0, NOW));
+        journal.append(record("m2", 0, NOW));
+        assertTrue(journal.isForcePending());
+
+        // Nothing else is appended, the deferred force still runs once the interval is up
+        long deadline = System.currentTimeMillis() + ActionJournal.PERIODIC_FSYNC_INTERVAL_MS + 3000;
+        while (journal.isForcePending() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertFalse(journal.isForcePending());
+    }
+
+    @Test
+    public void close_forcesPendingAppends() throws IOException {
+        journal.setFsyncPolicy(ActionJournal.FsyncPolicy.PERIODIC);
+        journal.append(record("m1", 0, NOW));
+        journal.append(record("m2", 0, NOW));
+        assertTrue(journal.isForcePending());
+
+        journal.close();
+        assertFalse(journal.isForcePending());
+    }
+
+    @Test
+    public void compact_trimsOldestOverRecordCap() throws IOException {
+        journal.setRetention(100, Long.MAX_VALUE, Long.MAX_VALUE);
+        journal.append(records(100, NOW));
+        assertEquals(0, journal.compact(NOW));
+
+        journal.append(record("m100", 0, NOW));
+        assertEquals(11, journal.compact(NOW));
+        List<ActionRecord> records = journal.readAll();
+        assertEquals(90, records.size());
+        assertEquals("m11", records.get(0).messageId);
+        assertEquals("m100", records.get(89).messageId);
+    }
+
+    @Test
+    public void compact_trimsOldestOverByteCap() throws IOException {
+        journal.setRetention(Integer.MAX_VALUE, 64 * 1024, Long.MAX_VALUE);
+        journal.append(records(5000, NOW));
+        long size = file.length();
+        assertTrue(size > 64 * 1024);
+
+        assertTrue(journal.compact(NOW) > 0);
+        assertTrue(file.length() <= 64 * 1024 * 9 / 10 + 1024);
+        List<ActionRecord> records = journal.readAll();
+        assertEquals("m4999", records.get(records.size() - 1).messageId);
+    }
+
+    @Test
+    public void compact_dropsExpiredUpToFirstFreshRecord() throws IOException {
+        journal.setRetention(Integer.MAX_VALUE, Long.MAX_VALUE, 30 * DAY);
+        journal.append(Arrays.asList(record("old1", 0, NOW - 40 * DAY), record("old2", 0, NOW - 31 * DAY),
+                record("fresh", 0, NOW - DAY), record("old3", 0, NOW - 40 * DAY)));
+
+        assertEquals(2, journal.compact(NOW));
+        List<ActionRecord> records = journal.readAll();
+        assertEquals(2, records.size());
+        assertEquals("fresh", records.get(0).messageId);
+    }
+
+    @Test
+    public void compact_keepsRecordsWithoutTimestamp() throws IOException {
+        journal.setRetention(Integer.MAX_VALUE, Long.MAX_VALUE, DAY);
+        journal.append(Arrays.asList(record("legacy", 0, ActionRecord.UNKNOWN_TIMESTAMP), record("old", 0, NOW - 2 * DAY)));
+
+        assertEquals(0, journal.compact(NOW));
+        assertEquals(2, journal.count());
+    }
+
+    @Test
+    public void compact_keepsCursorsValid() throws IOException {
+        journal.setRetention(10, Long.MAX_VALUE, Long.MAX_VALUE);
+        journal.append(records(20, NOW));
+        ActionJournal.Batch before = journal.readBatch(0, 5);
+        ActionJournal.Batch middle = journal.readBatch(0, 15);
+
+        assertEquals(11, journal.compact(NOW));
+
+        // Cursor of already dropped records reads from the first stored one
+        ActionJournal.Batch batch = journal.readBatch(before.nextCursor, 100);
+        assertEquals(9, batch.entries.size());
+        assertEquals("m11", batch.entries.get(0).messageId);
+
+        // Cursor past the dropped records still points at the same record
+        journal.ack(middle.nextCursor);
+        List<ActionRecord> records = journal.readAll();
+        assertEquals(5, records.size());
+        assertEquals("m15", records.get(0).messageId);
+    }
+
+    @Test
+    public void ack_rejectsCursorInsideRecord() throws IOException {
+        journal.append(records(3, NOW));
+        ActionJournal.Batch first = journal.readBatch(0, 1);
+
+        try {
+            journal.ack(first.nextCursor + 1);
+            fail("Cursor inside a record was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            journal.readBatch(first.nextCursor - 1, 10);
+            fail("Cursor inside a record was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // Nothing was cut, the tail still reads fine
+        assertEquals(3, journal.readAll().size());
+        assertTrue(journal.ack(first.nextCursor));
+        List<ActionRecord> records = journal.readAll();
+        assertEquals(2, records.size());
+        assertEquals("m1", records.get(0).messageId);
+    }
+
+    private static List<ActionRecord> records(int count, long timestamp) {
+        List<ActionRecord> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            records.add(record("m" + i, 0, timestamp));
+        }
+        return records;
+    }
+
+    private static ActionRecord record(String messageId, int actionIndex, long timestamp) {
+        return new ActionRecord(messageId, actionIndex, timestamp, 0, ActionRecord.UNKNOWN_DWELL);
+    }
+}
@@ -0,0 +1,47 @@
+package ly.count.unity.push_fcm;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ActionRecordTest {
+    private static final long NOW = 1700000000000L;
+
+    @Test
+    public void encode_roundTrips() throws IOException {
+        ActionRecord record = ActionRecord.clicked("5f1a2b3c4d5e6f7081920a1b", 2, "https://count.ly/x", NOW - 42000, NOW);
+        ActionRecord decoded = ActionRecord.decode(record.encode());
+
+        assertEquals(record.messageId, decoded.messageId);
+        assertEquals(2, decoded.actionIndex);
+        assertEquals(NOW, decoded.timestamp);
+        assertEquals("https://count.ly/x".hashCode(), decoded.linkHash);
+        assertEquals(42000, decoded.dwellMs);
+    }
+
+    @Test
+    public void encode_keepsUnknownValues() throws IOException {
+        ActionRecord decoded = ActionRecord.decode(ActionRecord.clicked("m", 0, null, 0, NOW).encode());
+
+        assertEquals(0, decoded.linkHash);
+        assertEquals(ActionRecord.UNKNOWN_DWELL, decoded.dwellMs);
+    }
+
+    @Test
+    public void encode_isCompact() throws IOException {
+        String id = "5f1a2b3c4d5e6f7081920a1b";
+        byte[] bytes = ActionRecord.clicked(id, 1, "https://count.ly", NOW - 3600000, NOW).encode();
+        // id plus 1 (length) + 1 (index) + 6 (timestamp) + 4 (link) + 4 (dwell)
+        assertEquals(id.length() + 16, bytes.length);
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsTruncatedRecord() throws IOException {
+        byte[] bytes = ActionRecord.clicked("m", 1, "https://count.ly", NOW - 1000, NOW).encode();
+        byte[] truncated = new byte[bytes.length - 3];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        ActionRecord.decode(truncated);
+    }
+}
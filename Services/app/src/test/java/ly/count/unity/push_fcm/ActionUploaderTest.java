@@ -0,0 +1,142 @@
+package ly.count.unity.push_fcm;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ActionUploaderTest {
+    private static final long NOW = 1700000000000L;
+
+    private HttpServer server;
+    private final List<String> bodies = new ArrayList<>();
+    private volatile int status = 200;
+    private volatile String response = "{\"result\":\"Success\"}";
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/i", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                synchronized (bodies) {
+                    bodies.add(exchange.getRequestMethod() + " " + read(exchange.getRequestBody()));
+                }
+                byte[] bytes = response.getBytes("UTF-8");
+                exchange.sendResponseHeaders(status, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void upload_postsEventsInCountlyFormat() throws Exception {
+        assertTrue(uploader().upload(config(null), entries(), NOW));
+
+        assertEquals(1, bodies.size());
+        String body = bodies.get(0);
+        assertTrue(body.startsWith("POST app_key=APP&device_id=device+1&sdk_name=csharp-unity-android&sdk_version=24.8.0&timestamp=" + NOW));
+        assertFalse(body.contains("checksum256"));
+
+        String events = URLDecoder.decode(body.substring(body.indexOf("events=") + 7), "UTF-8");
+        assertTrue(events, events.startsWith("[{\"key\":\"[CLY]_push_action\",\"count\":1,\"timestamp\":" + NOW));
+        assertTrue(events, events.contains("\"segmentation\":{\"b\":\"m1\",\"i\":\"0\",\"p\":\"a\"}"));
+        assertTrue(events, events.contains("\"segmentation\":{\"b\":\"m\\\"2\",\"i\":\"2\",\"p\":\"a\"}"));
+    }
+
+    @Test
+    public void upload_usesClickTimeAndDwell() throws Exception {
+        List<ActionRecord> records = Arrays.asList(ActionRecord.clicked("m1", 1, "https://count.ly", NOW - 65000, NOW - 5000));
+        assertTrue(uploader().upload(config(null), records, NOW));
+
+        String body = bodies.get(0);
+        assertTrue(body.contains("&timestamp=" + NOW + "&"));
+        String events = URLDecoder.decode(body.substring(body.indexOf("events=") + 7), "UTF-8");
+        assertTrue(events, events.contains("\"timestamp\":" + (NOW - 5000) + ","));
+        assertTrue(events, events.contains("\"dur\":60.0,"));
+    }
+
+    @Test
+    public void upload_addsChecksumWithSalt() throws Exception {
+        assertTrue(uploader().upload(config("pepper"), entries(), NOW));
+
+        String body = bodies.get(0).substring("POST ".length());
+        int at = body.indexOf("&checksum256=");
+        assertTrue(at > 0);
+        assertEquals(sha256(body.substring(0, at) + "pepper"), body.substring(at + "&checksum256=".length()));
+    }
+
+    @Test
+    public void upload_failsOnServerError() {
+        status = 500;
+        assertFalse(uploader().upload(config(null), entries(), NOW));
+    }
+
+    @Test
+    public void upload_failsOnUnexpectedResponse() {
+        response = "<html>proxy login</html>";
+        assertFalse(uploader().upload(config(null), entries(), NOW));
+    }
+
+    @Test
+    public void upload_failsWhenServerIsDown() {
+        server.stop(0);
+        assertFalse(uploader().upload(config(null), entries(), NOW));
+    }
+
+    private ActionUploader uploader() {
+        return new ActionUploader(1000, 1000);
+    }
+
+    private ActionUploader.Config config(String salt) {
+        return new ActionUploader.Config("http://127.0.0.1:" + server.getAddress().getPort() + "/", "APP", "device 1", salt,
+                "csharp-unity-android", "24.8.0");
+    }
+
+    private static List<ActionRecord> entries() {
+        return Arrays.asList(new ActionRecord("m1", 0, ActionRecord.UNKNOWN_TIMESTAMP, 0, ActionRecord.UNKNOWN_DWELL),
+                new ActionRecord("m\"2", 2, ActionRecord.UNKNOWN_TIMESTAMP, 0, ActionRecord.UNKNOWN_DWELL));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+
+    private static String sha256(String value) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(value.getBytes("UTF-8"))) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
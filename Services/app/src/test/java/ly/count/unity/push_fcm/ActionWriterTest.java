@@ -0,0 +1,183 @@
+package ly.count.unity.push_fcm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ActionWriterTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("actions", ".journal");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".lock").delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void append_storesBeforeReturning() throws IOException {
+        ActionJournal journal = new ActionJournal(file, ActionJournal.FsyncPolicy.NEVER);
+        ActionWriter writer = new ActionWriter(journal);
+        writer.append(record("m1", 0));
+        writer.append(record("m2", 3));
+
+        List<ActionRecord> entries = journal.readAll();
+        assertEquals(2, entries.size());
+        assertEquals("m1", entries.get(0).messageId);
+        assertEquals(3, entries.get(1).actionIndex);
+        journal.close();
+    }
+
+    @Test
+    public void append_failsOnlyTheBadAction() throws Exception {
+        final ActionJournal journal = new ActionJournal(file, ActionJournal.FsyncPolicy.NEVER);
+        final ActionWriter writer = new ActionWriter(journal);
+        StringBuilder longId = new StringBuilder();
+        while (longId.length() <= 0xFFFF) {
+            longId.append("0123456789");
+        }
+
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final String id = i == 3 ? longId.toString() : "m" + i;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writer.append(record(id, 0));
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        runAll(threads);
+
+        assertEquals(1, failures.get());
+        assertEquals(7, journal.count());
+        journal.close();
+    }
+
+    /**
+     * Two journals on the same file stand in for two processes. Writers append from many threads while
+     * a consumer reads and acknowledges batches through the other journal; every action has to come out exactly once.
+     */
+    @Test
+    public void append_losesNothingUnderConcurrentWritersAndConsumer() throws Exception {
+        final int threadsPerProcess = 8;
+        final int actionsPerThread = 500;
+        final ActionJournal first = new ActionJournal(file, ActionJournal.FsyncPolicy.NEVER);
+        final ActionJournal second = new ActionJournal(file, ActionJournal.FsyncPolicy.NEVER);
+        first.setRetention(Integer.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+        second.setRetention(Integer.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+        ActionWriter[] writers = {new ActionWriter(first), new ActionWriter(second)};
+
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < writers.length; p++) {
+            for (int t = 0; t < threadsPerProcess; t++) {
+                final ActionWriter writer = writers[p];
+                final String prefix = p + "-" + t + "-";
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < actionsPerThread; i++) {
+                            try {
+                                writer.append(record(prefix + i, i % 3));
+                            } catch (IOException e) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    }
+                }));
+            }
+        }
+
+        final List<String> consumed = new ArrayList<>();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final List<Throwable> consumerErrors = new ArrayList<>();
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    boolean done;
+                    do {
+                        done = !writing.get();
+                        ActionJournal.Batch batch;
+                        do {
+                            batch = second.readBatch(0, 97);
+                            for (ActionRecord entry : batch.entries) {
+                                consumed.add(entry.messageId);
+                            }
+                            second.ack(batch.nextCursor);
+                        } while (!batch.entries.isEmpty());
+                    } while (!done);
+                } catch (Throwable e) {
+                    consumerErrors.add(e);
+                }
+            }
+        });
+        consumer.start();
+        runAll(threads);
+        writing.set(false);
+        consumer.join();
+
+        assertTrue(consumerErrors.toString(), consumerErrors.isEmpty());
+        assertEquals(0, failures.get());
+        int total = writers.length * threadsPerProcess * actionsPerThread;
+        Set<String> unique = new HashSet<>(consumed);
+        assertEquals(total, consumed.size());
+        assertEquals(total, unique.size());
+        assertEquals(0, first.count());
+        assertTrue(first.isEmpty());
+        first.close();
+        second.close();
+    }
+
+    private static ActionRecord record(String messageId, int actionIndex) {
+        return new ActionRecord(messageId, actionIndex, System.currentTimeMillis(), 0, ActionRecord.UNKNOWN_DWELL);
+    }
+
+    private static void runAll(List<Thread> threads) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> started = new ArrayList<>();
+        for (final Thread thread : threads) {
+            Thread gated = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    thread.run();
+                }
+            });
+            gated.start();
+            started.add(gated);
+        }
+        start.countDown();
+        for (Thread thread : started) {
+            thread.join();
+        }
+    }
+}
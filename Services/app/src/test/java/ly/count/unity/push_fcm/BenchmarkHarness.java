@@ -0,0 +1,204 @@
+package ly.count.unity.push_fcm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+/**
+ * Small JVM benchmark runner for the hot paths. Classes named {@code *BenchmarkTest} using it are left out of the unit
+ * tests and only run by {@code ./gradlew benchmark}.
+ *
+ * Each case is warmed up until consecutive rounds agree within {@link #STABLE_SPREAD}, then timed in {@link #ROUNDS}
+ * rounds of at least {@link #MIN_ROUND_NS} and the fastest round is taken, being the one least disturbed by the machine. To make checked in numbers usable on other machines, results are stored in
+ * {@link #BASELINES} as a score: ns/op divided by ns/op of a fixed {@link #calibrate(byte[]) calibration} workload
+ * measured right before the case, so that load on the machine affects both about the same.
+ * A case fails when its score gets more than {@code benchmark.tolerance} times (default 3) worse than its baseline
+ * in two measurements in a row.
+ *
+ * Run with {@code -Dbenchmark.update=true} to rewrite the baselines after an intended change.
+ * Cases without a baseline are reported but not checked.
+ */
+class BenchmarkHarness {
+    static final String BASELINES = "src/test/resources/benchmarks/baselines.properties";
+    private static final int ROUNDS = 7;
+    private static final long MIN_ROUND_NS = 20000000L;
+    // Shorter warm-ups left the JIT settling during the first case of a run, which then measured up to twice as slow
+    private static final long MIN_WARMUP_NS = 2000000000L;
+    private static final long MAX_WARMUP_NS = 5000000000L;
+    private static final double STABLE_SPREAD = 0.1;
+
+    private static final boolean UPDATE = Boolean.getBoolean("benchmark.update");
+    private static final double TOLERANCE = Double.parseDouble(System.getProperty("benchmark.tolerance", "3"));
+
+    private static volatile int sink;
+
+    private BenchmarkHarness() {
+    }
+
+    /**
+     * Measure {@code op} and check it against its baseline, or record it as the new baseline.
+     *
+     * @return measured ns/op
+     */
+    static synchronized double check(String name, Runnable op) throws IOException {
+        double[] result = score(name, op);
+        Map<String, Double> baselines = load();
+        if (UPDATE) {
+            baselines.put(name, result[1]);
+            store(baselines);
+            return result[0];
+        }
+
+        Double baseline = baselines.get(name);
+        if (baseline == null) {
+            System.out.println("BENCH " + name + " has no baseline, run with -Dbenchmark.update=true to record one");
+            return result[0];
+        }
+        if (result[1] > baseline * TOLERANCE) {
+            // A busy machine or a GC can spoil a whole measurement, a real regression shows up again
+            System.out.println("BENCH " + name + " over tolerance, measuring again");
+            result = score(name, op);
+        }
+        assertTrue(String.format(Locale.US, "%s regressed: score %.4f, baseline %.4f, tolerance %.1fx", name, result[1], baseline, TOLERANCE),
+                result[1] <= baseline * TOLERANCE);
+        return result[0];
+    }
+
+    /**
+     * @return ns/op and score
+     */
+    private static double[] score(String name, Runnable op) {
+        double calibration = measure(new Runnable() {
+            private final byte[] bytes = new byte[4096];
+
+            @Override
+            public void run() {
+                calibrate(bytes);
+            }
+        });
+        double ns = measure(op);
+        double score = ns / calibration;
+        System.out.println(String.format(Locale.US, "BENCH %-28s %12.1f ns/op  score %.4f", name, ns, score));
+        return new double[]{ns, score};
+    }
+
+    static double measure(Runnable op) {
+        long start = System.nanoTime();
+        long iterations = 1;
+        double[] last = new double[3];
+        int warmupRounds = 0;
+        while (true) {
+            long elapsed = time(op, iterations);
+            if (elapsed < MIN_ROUND_NS) {
+                iterations *= 2;
+                continue;
+            }
+            last[warmupRounds++ % last.length] = (double) elapsed / iterations;
+            long warmup = System.nanoTime() - start;
+            if (warmup > MAX_WARMUP_NS || (warmup > MIN_WARMUP_NS && warmupRounds >= last.length && isStable(last))) {
+                break;
+            }
+        }
+
+        double[] rounds = new double[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            rounds[i] = (double) time(op, iterations) / iterations;
+        }
+        Arrays.sort(rounds);
+        return rounds[0];
+    }
+
+    private static boolean isStable(double[] rounds) {
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        for (double round : rounds) {
+            min = Math.min(min, round);
+            max = Math.max(max, round);
+        }
+        return max <= min * (1 + STABLE_SPREAD);
+    }
+
+    /**
+     * Keep a result alive so the JIT can't drop the work producing it.
+     */
+    static void consume(Object value) {
+        sink += value == null ? 0 : value.hashCode();
+    }
+
+    static void consume(int value) {
+        sink += value;
+    }
+
+    private static long time(Runnable op, long iterations) {
+        long start = System.nanoTime();
+        for (long i = 0; i < iterations; i++) {
+            op.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Checksums, string building and hashing, roughly the mix the measured code does.
+     */
+    private static void calibrate(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        Map<String, String> map = new HashMap<>();
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 16; i++) {
+            builder.setLength(0);
+            builder.append("key").append(i).append(crc.getValue());
+            map.put(builder.toString(), builder.toString());
+        }
+        consume(map.size());
+    }
+
+    private static Map<String, Double> load() throws IOException {
+        Map<String, Double> baselines = new TreeMap<>();
+        File file = new File(BASELINES);
+        if (!file.exists()) {
+            return baselines;
+        }
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        for (String name : properties.stringPropertyNames()) {
+            baselines.put(name, Double.parseDouble(properties.getProperty(name)));
+        }
+        return baselines;
+    }
+
+    private static void store(Map<String, Double> baselines) throws IOException {
+        File file = new File(BASELINES);
+        File parent = file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write("# Benchmark scores (ns/op divided by calibration ns/op), see BenchmarkHarness\n");
+            for (Map.Entry<String, Double> entry : baselines.entrySet()) {
+                out.write(entry.getKey() + "=" + String.format(Locale.US, "%.4f", entry.getValue()) + "\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
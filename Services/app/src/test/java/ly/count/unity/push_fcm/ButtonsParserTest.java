@@ -0,0 +1,147 @@
+package ly.count.unity.push_fcm;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ButtonsParserTest {
+    private static final String TYPICAL = "[{\"t\":\"Open\",\"l\":\"https://count.ly/a\"},{\"t\":\"Later\",\"l\":\"https://count.ly/b\"}]";
+
+    @Test
+    public void parse_typical() {
+        List<ButtonsParser.Entry> entries = ButtonsParser.parse(TYPICAL);
+        assertEquals(2, entries.size());
+        assertEquals(1, entries.get(0).index);
+        assertEquals("Open", entries.get(0).title);
+        assertEquals("https://count.ly/a", entries.get(0).link);
+        assertEquals(2, entries.get(1).index);
+        assertEquals("Later", entries.get(1).title);
+    }
+
+    @Test
+    public void parse_escapesAndWhitespace() {
+        List<ButtonsParser.Entry> entries = ButtonsParser.parse(" [ { \"l\" : \"https:\\/\\/count.ly\\/?q=\\\"x\\\"\" , \"t\" : \"Caf\\u00e9\\n\" } ] ");
+        assertEquals(1, entries.size());
+        assertEquals("Caf\u00e9\n", entries.get(0).title);
+        assertEquals("https://count.ly/?q=\"x\"", entries.get(0).link);
+    }
+
+    @Test
+    public void parse_skipsIncompleteButtonsKeepingIndex() {
+        List<ButtonsParser.Entry> entries = ButtonsParser.parse("[{\"t\":\"No link\"},{\"x\":{\"t\":\"nested\",\"l\":[1,2]},\"t\":\"Second\",\"l\":\"s\"},5,null]");
+        assertEquals(1, entries.size());
+        assertEquals(2, entries.get(0).index);
+        assertEquals("Second", entries.get(0).title);
+    }
+
+    @Test
+    public void parse_malformedKeepsButtonsReadSoFar() {
+        List<ButtonsParser.Entry> entries = ButtonsParser.parse("[{\"t\":\"A\",\"l\":\"a\"},{\"t\":\"B\",");
+        assertEquals(1, entries.size());
+        assertEquals("A", entries.get(0).title);
+
+        assertTrue(ButtonsParser.parse("not json").isEmpty());
+        assertTrue(ButtonsParser.parse("[]").isEmpty());
+        assertTrue(ButtonsParser.parse(null).isEmpty());
+    }
+
+    @Test
+    public void message_parsesFieldsLazily() {
+        Map<String, String> data = new HashMap<>();
+        data.put(CountlyPushPlugin.KEY_ID, "id");
+        data.put(CountlyPushPlugin.KEY_BADGE, "not a number");
+        data.put(CountlyPushPlugin.KEY_BUTTONS, TYPICAL);
+
+        CountlyPushPlugin.Message message = CountlyPushPlugin.decodeMessage(data);
+        assertEquals("id", message.getId());
+        assertNull(message.getBadge());
+        assertEquals(2, message.getButtons().size());
+        assertSame(message.getButtons(), message.getButtons());
+    }
+
+    /**
+     * Not a pass/fail check, prints parse cost of typical and maximal (4 KB FCM limit) payloads
+     * for the streaming parser and org.json, and decode cost of a message when only its id is used.
+     */
+    @Test
+    public void benchmark() throws Exception {
+        StringBuilder maximal = new StringBuilder("[");
+        for (int i = 0; maximal.length() < 3900; i++) {
+            if (i > 0) {
+                maximal.append(',');
+            }
+            maximal.append("{\"t\":\"Button title number ").append(i).append("\",\"l\":\"https://count.ly/campaign/landing?button=").append(i).append("\"}");
+        }
+        final String max = maximal.append(']').toString();
+
+        for (final String payload : new String[] {TYPICAL, max}) {
+            long streaming = measure(new Bench() {
+                @Override
+                public Object run() {
+                    return ButtonsParser.parse(payload);
+                }
+            });
+            long orgJson = measure(new Bench() {
+                @Override
+                public Object run() throws Exception {
+                    JSONArray array = new JSONArray(payload);
+                    for (int i = 0; i < array.length(); i++) {
+                        JSONObject btn = array.getJSONObject(i);
+                        btn.getString("t");
+                        btn.getString("l");
+                    }
+                    return array;
+                }
+            });
+            System.out.println("buttons " + payload.length() + " chars: streaming=" + streaming + "ns org.json=" + orgJson + "ns");
+        }
+
+        final Map<String, String> data = new HashMap<>();
+        data.put(CountlyPushPlugin.KEY_ID, "5f0c5e3b2a8f1a0001234567");
+        data.put(CountlyPushPlugin.KEY_TITLE, "Title");
+        data.put(CountlyPushPlugin.KEY_MESSAGE, "Message");
+        data.put(CountlyPushPlugin.KEY_BADGE, "3");
+        data.put(CountlyPushPlugin.KEY_MEDIA, "https://count.ly/image.png");
+        data.put(CountlyPushPlugin.KEY_BUTTONS, max);
+        long idOnly = measure(new Bench() {
+            @Override
+            public Object run() {
+                return CountlyPushPlugin.decodeMessage(data).getId();
+            }
+        });
+        long everything = measure(new Bench() {
+            @Override
+            public Object run() {
+                CountlyPushPlugin.Message message = CountlyPushPlugin.decodeMessage(data);
+                message.getBadge();
+                message.getMedia();
+                return message.getButtons();
+            }
+        });
+        System.out.println("decodeMessage: id only=" + idOnly + "ns all fields=" + everything + "ns");
+    }
+
+    interface Bench {
+        Object run() throws Exception;
+    }
+
+    private static Object sink;
+
+    private static long measure(Bench bench) throws Exception {
+        for (int i = 0; i < 2000; i++) {
+            sink = bench.run();
+        }
+        int iterations = 5000;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink = bench.run();
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+}
@@ -0,0 +1,138 @@
+package ly.count.unity.push_fcm;
+
+import android.util.Base64;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class CompressedPayloadTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String PAYLOAD = "{\"offer\":\"Caf\\u00e9 -20%\",\"count\":3,\"vip\":true,\"none\":null,\"cart\":{\"items\":[1,2]}}";
+
+    @Test
+    public void expand_gzip() throws IOException {
+        assertTypical(CompressedPayload.expand(encode(gzip(PAYLOAD.getBytes(UTF_8)))));
+    }
+
+    @Test
+    public void expand_zlib() throws IOException {
+        assertTypical(CompressedPayload.expand(encode(deflate(PAYLOAD.getBytes(UTF_8), false))));
+    }
+
+    @Test
+    public void expand_rawDeflate() throws IOException {
+        assertTypical(CompressedPayload.expand(encode(deflate(PAYLOAD.getBytes(UTF_8), true))));
+    }
+
+    private static void assertTypical(Map<String, String> expanded) {
+        assertNotNull(expanded);
+        assertEquals(4, expanded.size());
+        assertEquals("Caf\u00e9 -20%", expanded.get("offer"));
+        assertEquals("3", expanded.get("count"));
+        assertEquals("true", expanded.get("vip"));
+        assertEquals("{\"items\":[1,2]}", expanded.get("cart"));
+        assertFalse(expanded.containsKey("none"));
+    }
+
+    @Test
+    public void expand_rejectsBomb() throws IOException {
+        StringBuilder json = new StringBuilder("{\"a\":\"");
+        for (int i = 0; i < CompressedPayload.MAX_EXPANDED_BYTES; i++) {
+            json.append('x');
+        }
+        json.append("\"}");
+        String encoded = encode(gzip(json.toString().getBytes(UTF_8)));
+        assertTrue(encoded.length() < CompressedPayload.MAX_ENCODED_CHARS);
+        assertNull(CompressedPayload.expand(encoded));
+    }
+
+    @Test
+    public void expand_rejectsOverLimits() throws IOException {
+        StringBuilder encoded = new StringBuilder();
+        while (encoded.length() <= CompressedPayload.MAX_ENCODED_CHARS) {
+            encoded.append("AAAA");
+        }
+        assertNull(CompressedPayload.expand(encoded.toString()));
+
+        StringBuilder json = new StringBuilder("{");
+        for (int i = 0; i <= CompressedPayload.MAX_ENTRIES; i++) {
+            json.append(i == 0 ? "" : ",").append("\"k").append(i).append("\":1");
+        }
+        assertNull(CompressedPayload.expand(encode(gzip(json.append('}').toString().getBytes(UTF_8)))));
+    }
+
+    @Test
+    public void expand_rejectsMalformed() throws IOException {
+        assertNull(CompressedPayload.expand("not base64 !"));
+        assertNull(CompressedPayload.expand(encode("{\"a\":1}".getBytes(UTF_8))));
+        assertNull(CompressedPayload.expand(encode(gzip("[1,2]".getBytes(UTF_8)))));
+        assertNull(CompressedPayload.expand(encode(gzip("{\"a\":".getBytes(UTF_8)))));
+    }
+
+    @Test
+    public void message_expandsOnDataAccessOnly() throws IOException {
+        Map<String, String> data = new HashMap<>();
+        data.put(CountlyPushPlugin.KEY_ID, "id");
+        data.put(CountlyPushPlugin.KEY_TITLE, "Title");
+        data.put("offer", "plain");
+        data.put(CountlyPushPlugin.KEY_COMPRESSED, encode(gzip("{\"offer\":\"packed\",\"title\":\"Other\",\"extra\":\"x\"}".getBytes(UTF_8))));
+
+        CountlyPushPlugin.Message message = CountlyPushPlugin.decodeMessage(data);
+        assertNotNull(message);
+        int contentHash = message.contentHash();
+        assertEquals("Title", message.getData(CountlyPushPlugin.KEY_TITLE));
+
+        assertEquals("x", message.getData("extra"));
+        assertEquals("plain", message.getData("offer"));
+        assertEquals("Title", message.getData(CountlyPushPlugin.KEY_TITLE));
+        assertFalse(message.has(CountlyPushPlugin.KEY_COMPRESSED));
+        assertEquals(4, message.getDataKeys().size());
+        assertTrue(data.containsKey(CountlyPushPlugin.KEY_COMPRESSED));
+        assertTrue(contentHash != message.contentHash());
+    }
+
+    @Test
+    public void message_dropsBadPayload() {
+        long bad = PushMetrics.badPayload.get();
+        Map<String, String> data = new HashMap<>();
+        data.put(CountlyPushPlugin.KEY_ID, "id");
+        data.put(CountlyPushPlugin.KEY_COMPRESSED, "broken");
+
+        CountlyPushPlugin.Message message = CountlyPushPlugin.decodeMessage(data);
+        assertEquals(1, message.getDataKeys().size());
+        assertEquals(bad + 1, PushMetrics.badPayload.get());
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.encodeToString(bytes, Base64.NO_WRAP);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(bytes);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] bytes, boolean raw) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, raw);
+        OutputStream deflate = new DeflaterOutputStream(out, deflater);
+        deflate.write(bytes);
+        deflate.close();
+        deflater.end();
+        return out.toByteArray();
+    }
+}
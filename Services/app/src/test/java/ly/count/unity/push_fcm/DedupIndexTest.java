@@ -0,0 +1,140 @@
+package ly.count.unity.push_fcm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class DedupIndexTest {
+    private static final long WINDOW = 60 * 1000;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("dedup", ".idx");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void markSeen_dropsRepeatWithinWindow() {
+        DedupIndex index = new DedupIndex(null, 16, WINDOW);
+        assertTrue(index.markSeen("a", 1000));
+        assertTrue(index.markSeen("b", 1000));
+        assertFalse(index.markSeen("a", 2000));
+        assertFalse(index.markSeen("b", 1000 + WINDOW - 1));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void markSeen_acceptsRepeatAfterWindow() {
+        DedupIndex index = new DedupIndex(null, 16, WINDOW);
+        assertTrue(index.markSeen("a", 1000));
+        assertTrue(index.markSeen("a", 1000 + WINDOW));
+        assertFalse(index.markSeen("a", 1000 + WINDOW + 1));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void markSeen_forgetsOldestBeyondCapacity() {
+        DedupIndex index = new DedupIndex(null, 4, WINDOW);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(index.markSeen("id" + i, 1000));
+        }
+        assertEquals(4, index.size());
+        assertTrue(index.markSeen("id0", 1000));
+        assertTrue(index.markSeen("id1", 1000));
+        assertFalse(index.markSeen("id5", 1000));
+    }
+
+    @Test
+    public void isSeen_doesNotMark() {
+        DedupIndex index = new DedupIndex(null, 16, WINDOW);
+        assertFalse(index.isSeen("a", 1000));
+        assertFalse(index.isSeen("a", 1000));
+        assertEquals(0, index.size());
+
+        assertTrue(index.markSeen("a", 1000));
+        assertTrue(index.isSeen("a", 1000 + WINDOW - 1));
+        assertFalse(index.isSeen("a", 1000 + WINDOW));
+    }
+
+    @Test
+    public void persistence_survivesReopen() {
+        long now = System.currentTimeMillis();
+        DedupIndex index = new DedupIndex(file, 8, WINDOW);
+        for (int i = 0; i < 11; i++) {
+            assertTrue(index.markSeen("id" + i, now));
+        }
+        index.close();
+
+        DedupIndex reopened = new DedupIndex(file, 8, WINDOW);
+        assertEquals(8, reopened.size());
+        assertFalse(reopened.markSeen("id10", now));
+        assertFalse(reopened.markSeen("id3", now));
+        // id11 takes the slot of id3, the oldest one left
+        assertTrue(reopened.markSeen("id11", now));
+        assertTrue(reopened.markSeen("id3", now));
+        reopened.close();
+
+        DedupIndex again = new DedupIndex(file, 8, WINDOW);
+        assertFalse(again.markSeen("id11", now));
+        assertFalse(again.markSeen("id3", now));
+        again.close();
+    }
+
+    @Test
+    public void persistence_skipsExpiredAndResetsOnCapacityChange() {
+        long now = System.currentTimeMillis();
+        DedupIndex index = new DedupIndex(file, 8, WINDOW);
+        index.markSeen("old", now - 2 * WINDOW);
+        index.markSeen("fresh", now);
+        index.close();
+
+        DedupIndex reopened = new DedupIndex(file, 8, WINDOW);
+        assertEquals(1, reopened.size());
+        reopened.close();
+
+        DedupIndex resized = new DedupIndex(file, 16, WINDOW);
+        assertEquals(0, resized.size());
+        assertTrue(resized.markSeen("fresh", now));
+        resized.close();
+    }
+
+    @Test
+    public void memory_staysConstantUnderMillionsOfIds() {
+        DedupIndex index = new DedupIndex(null, DedupIndex.DEFAULT_CAPACITY, DedupIndex.DEFAULT_WINDOW_MS);
+        long before = usedMemory();
+
+        int ids = 3000000;
+        long now = 0;
+        for (int i = 0; i < ids; i++) {
+            assertTrue(index.markSeen("5f1b7d2e3a4c" + i, now++));
+            if (i % 1000 == 999) {
+                // Ids within the last capacity are still recognized
+                assertFalse(index.markSeen("5f1b7d2e3a4c" + (i - 500), now));
+            }
+        }
+
+        long after = usedMemory();
+        assertEquals(DedupIndex.DEFAULT_CAPACITY, index.size());
+        assertTrue("memory grew by " + (after - before) + " bytes", after - before < 1024 * 1024);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,91 @@
+package ly.count.unity.push_fcm;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class HeldPushesTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void restore_returnsPushesHeldAtProcessDeath() throws Exception {
+        File dir = new File(folder.getRoot(), HeldPushes.DIRECTORY);
+        HeldPushes held = new HeldPushes(dir);
+        held.hold("a", RemoteNotificationsServiceTest.data("a"));
+        held.hold("b", RemoteNotificationsServiceTest.data("b"));
+        held.release("a");
+
+        // Next process
+        HeldPushes restarted = new HeldPushes(dir);
+        List<Map<String, String>> restored = restarted.restore(System.currentTimeMillis());
+        assertEquals(1, restored.size());
+        assertEquals(RemoteNotificationsServiceTest.data("b"), restored.get(0));
+
+        assertTrue(restarted.restore(System.currentTimeMillis()).isEmpty());
+    }
+
+    @Test
+    public void restore_skipsStaleAndPartialFiles() throws Exception {
+        File dir = new File(folder.getRoot(), HeldPushes.DIRECTORY);
+        HeldPushes held = new HeldPushes(dir);
+        held.hold("a", RemoteNotificationsServiceTest.data("a"));
+        assertTrue(new File(dir, "partial.tmp").createNewFile());
+
+        assertTrue(held.restore(System.currentTimeMillis() + 2L * 24 * 60 * 60 * 1000).isEmpty());
+        assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void restore_skipsCorruptFiles() throws Exception {
+        File dir = new File(folder.getRoot(), HeldPushes.DIRECTORY);
+        HeldPushes held = new HeldPushes(dir);
+        writeInts(new File(dir, "huge_size"), Integer.MAX_VALUE);
+        writeInts(new File(dir, "negative_size"), -5);
+        writeInts(new File(dir, "huge_string"), 1, Integer.MAX_VALUE, 0);
+        writeInts(new File(dir, "truncated"), 3, 1);
+        held.hold("a", RemoteNotificationsServiceTest.data("a"));
+
+        List<Map<String, String>> restored = held.restore(System.currentTimeMillis());
+        assertEquals(1, restored.size());
+        assertEquals(RemoteNotificationsServiceTest.data("a"), restored.get(0));
+        assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void readMap_rejectsSizesBeyondFile() throws Exception {
+        File file = new File(folder.getRoot(), "map");
+        writeInts(file, 100000, -1, -1);
+        try {
+            PayloadStore.readMap(file);
+            fail("size beyond file length accepted");
+        } catch (IOException expected) {
+        }
+        writeInts(file, 1, 1 << 30, 0);
+        try {
+            PayloadStore.readMap(file);
+            fail("string length beyond file length accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static void writeInts(File file, int... values) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            for (int value : values) {
+                out.writeInt(value);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
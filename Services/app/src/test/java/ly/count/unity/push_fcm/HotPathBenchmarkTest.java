@@ -0,0 +1,156 @@
+package ly.count.unity.push_fcm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JVM benchmarks of the push hot paths checked against {@link BenchmarkHarness#BASELINES}, run by {@code ./gradlew benchmark}.
+ * Parcel round trips are in {@link MessageParcelBenchmarkTest}, which needs Robolectric.
+ */
+public class HotPathBenchmarkTest {
+    private static final String BUTTONS = "[{\"t\":\"Open\",\"l\":\"https://count.ly/a\"},{\"t\":\"Later\",\"l\":\"https://count.ly/b\"},"
+            + "{\"t\":\"Never\",\"l\":\"https://count.ly/c?utm_source=push&utm_medium=button\"}]";
+    private static final long NOW = 1700000000000L;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("bench", ".journal");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".lock").delete();
+    }
+
+    @Test
+    public void decode_small() throws IOException {
+        benchmarkDecode("decode.small", payload(0, 0, false));
+    }
+
+    @Test
+    public void decode_medium() throws IOException {
+        benchmarkDecode("decode.medium", payload(10, 64, true));
+    }
+
+    @Test
+    public void decode_large() throws IOException {
+        benchmarkDecode("decode.large", payload(50, 512, true));
+    }
+
+    @Test
+    public void buttons_parse() throws IOException {
+        BenchmarkHarness.check("buttons.parse", new Runnable() {
+            @Override
+            public void run() {
+                BenchmarkHarness.consume(ButtonsParser.parse(BUTTONS));
+            }
+        });
+    }
+
+    @Test
+    public void store_append_empty() throws IOException {
+        benchmarkAppend("store.append.backlog_0", 0);
+    }
+
+    @Test
+    public void store_append_1k() throws IOException {
+        benchmarkAppend("store.append.backlog_1k", 1000);
+    }
+
+    @Test
+    public void store_append_10k() throws IOException {
+        benchmarkAppend("store.append.backlog_10k", 10000);
+    }
+
+    @Test
+    public void bridge_serialize() throws IOException {
+        final List<UnityBridge.Event> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            batch.add(new UnityBridge.Event(UnityBridge.EVENT_RECEIVED, "m" + i, null, payload(10, 64, true), 0));
+        }
+        BenchmarkHarness.check("bridge.serialize_10", new Runnable() {
+            @Override
+            public void run() {
+                BenchmarkHarness.consume(UnityBridge.serialize(batch));
+            }
+        });
+    }
+
+    private static void benchmarkDecode(String name, final Map<String, String> data) throws IOException {
+        BenchmarkHarness.check(name, new Runnable() {
+            @Override
+            public void run() {
+                // Copy, as the message may keep and modify the map
+                CountlyPushPlugin.Message message = CountlyPushPlugin.decodeMessage(new HashMap<>(data));
+                BenchmarkHarness.consume(message.getTitle());
+                BenchmarkHarness.consume(message.getBadge());
+                BenchmarkHarness.consume(message.getMedia());
+                BenchmarkHarness.consume(message.getButtons().size());
+            }
+        });
+    }
+
+    private void benchmarkAppend(String name, int backlog) throws IOException {
+        final ActionJournal journal = new ActionJournal(file, ActionJournal.FsyncPolicy.NEVER);
+        List<ActionRecord> records = new ArrayList<>();
+        for (int i = 0; i < backlog; i++) {
+            records.add(ActionRecord.clicked("5f1a2b3c4d5e6f70819" + i, i % 3, "https://count.ly", NOW - 60000, NOW));
+        }
+        journal.append(records);
+
+        try {
+            BenchmarkHarness.check(name, new Runnable() {
+                private int next;
+
+                @Override
+                public void run() {
+                    try {
+                        // Distinct messages, a repeated click would only be merged
+                        journal.append(ActionRecord.clicked("6a1b2c3d4e5f60718293" + next++, 1, "https://count.ly", NOW - 60000, NOW));
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Countly message with buttons, media and badge as asked plus {@code customKeys} custom keys of {@code valueLength} chars.
+     */
+    private static Map<String, String> payload(int customKeys, int valueLength, boolean rich) {
+        Map<String, String> data = new HashMap<>();
+        data.put(CountlyPushPlugin.KEY_ID, "5f1a2b3c4d5e6f7081920a1b");
+        data.put(CountlyPushPlugin.KEY_TITLE, "Weekend sale");
+        data.put(CountlyPushPlugin.KEY_MESSAGE, "Everything in the shop is 50% off until Sunday, don't miss it");
+        data.put(CountlyPushPlugin.KEY_SOUND, "default");
+        if (rich) {
+            data.put(CountlyPushPlugin.KEY_BADGE, "3");
+            data.put(CountlyPushPlugin.KEY_LINK, "https://count.ly/sale");
+            data.put(CountlyPushPlugin.KEY_MEDIA, "https://count.ly/images/sale.png");
+            data.put(CountlyPushPlugin.KEY_BUTTONS, BUTTONS);
+        }
+        StringBuilder value = new StringBuilder();
+        while (value.length() < valueLength) {
+            value.append("0123456789abcdef");
+        }
+        for (int i = 0; i < customKeys; i++) {
+            data.put("custom_" + i, value.substring(0, valueLength));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,82 @@
+package ly.count.unity.push_fcm;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LogBufferTest {
+
+    @After
+    public void resetLevels() {
+        CountlyPushPlugin.setEnableLog(true);
+        CountlyPushPlugin.setLogLevel("VERBOSE");
+        CountlyPushPlugin.setLogBufferLevel("WARNING");
+    }
+
+    @Test
+    public void dump_keepsLatestLinesOldestFirst() {
+        LogBuffer buffer = new LogBuffer(3);
+        for (int i = 1; i <= 5; i++) {
+            buffer.add(CountlyPushPlugin.LogLevel.WARNING, "line " + i, null);
+        }
+        assertEquals(3, buffer.size());
+
+        String dump = buffer.dump();
+        assertFalse(dump.contains("line 2"));
+        int third = dump.indexOf("W line 3");
+        int fourth = dump.indexOf("W line 4");
+        int fifth = dump.indexOf("W line 5");
+        assertTrue(third >= 0 && third < fourth && fourth < fifth);
+    }
+
+    @Test
+    public void dump_includesStackTrace() {
+        LogBuffer buffer = new LogBuffer(2);
+        buffer.add(CountlyPushPlugin.LogLevel.ERROR, "failed", new IllegalStateException("boom"));
+        String dump = buffer.dump();
+        assertTrue(dump.contains("E failed"));
+        assertTrue(dump.contains("IllegalStateException: boom"));
+    }
+
+    @Test
+    public void clear_emptiesBuffer() {
+        LogBuffer buffer = new LogBuffer(2);
+        buffer.add(CountlyPushPlugin.LogLevel.INFO, "x", null);
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertEquals("", buffer.dump());
+    }
+
+    @Test
+    public void format_replacesPlaceholdersInOrder() {
+        assertEquals("a=1 b=two c=null", CountlyPushPlugin.format("a={} b={} c={}", 1, "two", null, 3));
+        assertEquals("only 1 {}", CountlyPushPlugin.format("only {} {}", 1, null, null, 1));
+        assertEquals("no placeholders", CountlyPushPlugin.format("no placeholders", 1, 2, 3, 3));
+    }
+
+    @Test
+    public void isLoggable_honoursThresholds() {
+        CountlyPushPlugin.setEnableLog(false);
+        CountlyPushPlugin.setLogBufferLevel("WARNING");
+        assertFalse(CountlyPushPlugin.isLoggable(CountlyPushPlugin.LogLevel.DEBUG));
+        assertTrue(CountlyPushPlugin.isLoggable(CountlyPushPlugin.LogLevel.WARNING));
+
+        CountlyPushPlugin.setEnableLog(true);
+        CountlyPushPlugin.setLogLevel("INFO");
+        assertFalse(CountlyPushPlugin.isLoggable(CountlyPushPlugin.LogLevel.DEBUG));
+        assertTrue(CountlyPushPlugin.isLoggable(CountlyPushPlugin.LogLevel.INFO));
+    }
+
+    @Test
+    public void log_disabledLevelSkipsBuffer() {
+        CountlyPushPlugin.setEnableLog(false);
+        CountlyPushPlugin.setLogBufferLevel("ERROR");
+        CountlyPushPlugin.log("skipped {}", "marker-skipped", CountlyPushPlugin.LogLevel.WARNING);
+        CountlyPushPlugin.log("kept {}", "marker-kept", CountlyPushPlugin.LogLevel.ERROR);
+
+        String dump = CountlyPushPlugin.dumpLog();
+        assertFalse(dump.contains("marker-skipped"));
+        assertTrue(dump.contains("E kept marker-kept"));
+    }
+}
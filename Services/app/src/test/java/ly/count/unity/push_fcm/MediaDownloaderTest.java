@@ -0,0 +1,182 @@
+package ly.count.unity.push_fcm;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MediaDownloaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/image", new BytesHandler(bytes(1000), true));
+        server.createContext("/chunked", new BytesHandler(bytes(5000), false));
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                exchange.sendResponseHeaders(200, 0);
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException ignored) {
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void download_writesWholeBody() throws IOException {
+        File destination = new File(folder.getRoot(), "image");
+        assertTrue(new MediaDownloader(1000, 1000, 10000).download(url("/image"), destination));
+        assertArrayEquals(bytes(1000), read(destination));
+    }
+
+    @Test
+    public void download_rejectsDeclaredLengthOverCap() {
+        File destination = new File(folder.getRoot(), "image");
+        assertFalse(new MediaDownloader(1000, 1000, 999).download(url("/image"), destination));
+        assertFalse(destination.exists());
+    }
+
+    @Test
+    public void download_stopsStreamingOverCap() {
+        File destination = new File(folder.getRoot(), "chunked");
+        assertFalse(new MediaDownloader(1000, 1000, 4096).download(url("/chunked"), destination));
+        assertFalse(destination.exists());
+    }
+
+    @Test
+    public void download_timesOut() {
+        File destination = new File(folder.getRoot(), "slow");
+        long start = System.currentTimeMillis();
+        assertFalse(new MediaDownloader(500, 300, 10000).download(url("/slow"), destination));
+        assertTrue(System.currentTimeMillis() - start < 1900);
+        assertFalse(destination.exists());
+    }
+
+    @Test
+    public void download_missingFile() {
+        assertFalse(new MediaDownloader(1000, 1000, 10000).download(url("/missing"), new File(folder.getRoot(), "missing")));
+    }
+
+    @Test
+    public void diskCache_hitAfterCommit() throws IOException {
+        MediaDiskCache cache = new MediaDiskCache(folder.newFolder("cache"), 10000);
+        String url = url("/image").toString();
+        assertNull(cache.get(url));
+
+        File temp = cache.newTempFile();
+        assertTrue(new MediaDownloader(1000, 1000, 10000).download(url("/image"), temp));
+        cache.commit(url, temp);
+
+        File cached = cache.get(url);
+        assertNotNull(cached);
+        assertArrayEquals(bytes(1000), read(cached));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void diskCache_evictsLeastRecentlyUsed() throws IOException {
+        File directory = folder.newFolder("cache");
+        MediaDiskCache cache = new MediaDiskCache(directory, 2500);
+        MediaDownloader downloader = new MediaDownloader(1000, 1000, 10000);
+
+        for (String name : new String[] {"a", "b"}) {
+            File temp = cache.newTempFile();
+            assertTrue(downloader.download(url("/image"), temp));
+            cache.commit("http://media/" + name, temp);
+        }
+        assertNotNull(cache.get("http://media/a"));
+
+        File temp = cache.newTempFile();
+        assertTrue(downloader.download(url("/image"), temp));
+        cache.commit("http://media/c", temp);
+
+        assertNotNull(cache.get("http://media/a"));
+        assertNull(cache.get("http://media/b"));
+        assertNotNull(cache.get("http://media/c"));
+        assertEquals(2000, cache.size());
+
+        // Entries survive reopening
+        MediaDiskCache reopened = new MediaDiskCache(directory, 2500);
+        assertNotNull(reopened.get("http://media/a"));
+        assertEquals(2000, reopened.size());
+    }
+
+    private URL url(String path) {
+        try {
+            return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] bytes(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                offset += in.read(bytes, offset, bytes.length - offset);
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private class BytesHandler implements HttpHandler {
+        private final byte[] body;
+        private final boolean declareLength;
+
+        BytesHandler(byte[] body, boolean declareLength) {
+            this.body = body;
+            this.declareLength = declareLength;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(200, declareLength ? body.length : 0);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package ly.count.unity.push_fcm;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MediaLoaderTest {
+    @Test
+    public void calculateInSampleSize_keepsBothSidesAtOrAboveRequested() {
+        assertEquals(1, MediaLoader.calculateInSampleSize(1000, 500, 1080, 540));
+        assertEquals(2, MediaLoader.calculateInSampleSize(4000, 2000, 1080, 540));
+        assertEquals(2, MediaLoader.calculateInSampleSize(4000, 1200, 1080, 540));
+        assertEquals(1, MediaLoader.calculateInSampleSize(4000, 2000, 0, 540));
+    }
+
+    @Test
+    public void fitScale_bringsSampledBitmapWithinRequested() {
+        // 4000x2000 sampled by 2 is still almost 2x over 1080x540
+        float scale = MediaLoader.fitScale(2000, 1000, 1080, 540);
+        assertEquals(1080, Math.round(2000 * scale));
+        assertEquals(540, Math.round(1000 * scale));
+
+        // Narrower than the box: height decides
+        scale = MediaLoader.fitScale(1500, 2000, 1080, 540);
+        assertEquals(405, Math.round(1500 * scale));
+        assertEquals(540, Math.round(2000 * scale));
+    }
+
+    @Test
+    public void fitScale_neverUpscales() {
+        assertEquals(1f, MediaLoader.fitScale(800, 400, 1080, 540), 0);
+        assertEquals(1f, MediaLoader.fitScale(1080, 540, 1080, 540), 0);
+        assertEquals(1f, MediaLoader.fitScale(2000, 1000, 0, 0), 0);
+    }
+}
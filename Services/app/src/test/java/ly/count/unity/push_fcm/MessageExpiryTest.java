@@ -0,0 +1,82 @@
+package ly.count.unity.push_fcm;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MessageExpiryTest {
+    private static final long NOW = 1700000000000L;
+
+    @Test
+    public void peekExpiry_noKeys() {
+        Map<String, String> data = data();
+        assertEquals(0, CountlyPushPlugin.Message.peekExpiry(data));
+        assertFalse(CountlyPushPlugin.Message.isExpired(data, NOW));
+    }
+
+    @Test
+    public void peekExpiry_absolute() {
+        Map<String, String> data = data();
+        data.put(CountlyPushPlugin.KEY_EXPIRES, String.valueOf(NOW));
+        assertEquals(NOW, CountlyPushPlugin.Message.peekExpiry(data));
+        assertFalse(CountlyPushPlugin.Message.isExpired(data, NOW - 1));
+        assertTrue(CountlyPushPlugin.Message.isExpired(data, NOW));
+    }
+
+    @Test
+    public void peekExpiry_sentAtPlusTtl() {
+        Map<String, String> data = data();
+        data.put(CountlyPushPlugin.KEY_SENT_AT, String.valueOf(NOW - 3600 * 1000));
+        assertEquals(0, CountlyPushPlugin.Message.peekExpiry(data));
+
+        data.put(CountlyPushPlugin.KEY_TTL, "7200");
+        assertEquals(NOW + 3600 * 1000, CountlyPushPlugin.Message.peekExpiry(data));
+        assertFalse(CountlyPushPlugin.Message.isExpired(data, NOW));
+
+        data.put(CountlyPushPlugin.KEY_TTL, "60");
+        assertTrue(CountlyPushPlugin.Message.isExpired(data, NOW));
+    }
+
+    @Test
+    public void peekExpiry_earlierWins() {
+        Map<String, String> data = data();
+        data.put(CountlyPushPlugin.KEY_EXPIRES, String.valueOf(NOW + 1000));
+        data.put(CountlyPushPlugin.KEY_SENT_AT, String.valueOf(NOW));
+        data.put(CountlyPushPlugin.KEY_TTL, "3600");
+        assertEquals(NOW + 1000, CountlyPushPlugin.Message.peekExpiry(data));
+
+        data.put(CountlyPushPlugin.KEY_TTL, "0");
+        assertEquals(NOW + 1000, CountlyPushPlugin.Message.peekExpiry(data));
+    }
+
+    @Test
+    public void peekExpiry_ignoresMalformed() {
+        Map<String, String> data = data();
+        data.put(CountlyPushPlugin.KEY_EXPIRES, "tomorrow");
+        data.put(CountlyPushPlugin.KEY_SENT_AT, "-5");
+        data.put(CountlyPushPlugin.KEY_TTL, "60");
+        assertEquals(0, CountlyPushPlugin.Message.peekExpiry(data));
+
+        data.put(CountlyPushPlugin.KEY_SENT_AT, String.valueOf(Long.MAX_VALUE - 1));
+        data.put(CountlyPushPlugin.KEY_TTL, String.valueOf(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, CountlyPushPlugin.Message.peekExpiry(data));
+        assertFalse(CountlyPushPlugin.Message.isExpired(data, NOW));
+    }
+
+    @Test
+    public void getExpiresAt_ofDecodedMessage() {
+        Map<String, String> data = data();
+        data.put(CountlyPushPlugin.KEY_EXPIRES, String.valueOf(NOW));
+        assertEquals(NOW, CountlyPushPlugin.decodeMessage(data).getExpiresAt());
+    }
+
+    private static Map<String, String> data() {
+        Map<String, String> data = new HashMap<>();
+        data.put(CountlyPushPlugin.KEY_ID, "id");
+        data.put(CountlyPushPlugin.KEY_TITLE, "Sale");
+        return data;
+    }
+}
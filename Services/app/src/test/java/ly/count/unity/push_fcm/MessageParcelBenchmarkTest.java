@@ -0,0 +1,104 @@
+package ly.count.unity.push_fcm;
+
+import android.os.Parcel;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Parcel round trip of {@link CountlyPushPlugin.Message}, which every notification and button intent carries,
+ * against the legacy {@code writeMap} format. Runs on Robolectric's Parcel, so scores compare the two formats
+ * on the JVM rather than predict device timings.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class MessageParcelBenchmarkTest {
+    @Before
+    public void setUp() {
+        PayloadStore.init(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void parcel_small() throws IOException {
+        benchmarkParcel(0);
+    }
+
+    @Test
+    public void parcel_medium() throws IOException {
+        benchmarkParcel(10);
+    }
+
+    @Test
+    public void parcel_large() throws IOException {
+        benchmarkParcel(50);
+    }
+
+    private static void benchmarkParcel(int customKeys) throws IOException {
+        final Map<String, String> data = payload(customKeys);
+        final CountlyPushPlugin.Message message = CountlyPushPlugin.decodeMessage(data);
+
+        BenchmarkHarness.check("parcel.compact_" + customKeys, new Runnable() {
+            @Override
+            public void run() {
+                Parcel parcel = Parcel.obtain();
+                message.writeToParcel(parcel, 0);
+                parcel.setDataPosition(0);
+                BenchmarkHarness.consume(CountlyPushPlugin.Message.CREATOR.createFromParcel(parcel));
+                parcel.recycle();
+            }
+        });
+        BenchmarkHarness.check("parcel.legacy_" + customKeys, new Runnable() {
+            @Override
+            public void run() {
+                Parcel parcel = Parcel.obtain();
+                parcel.writeMap(data);
+                parcel.setDataPosition(0);
+                Map<String, String> map = new HashMap<>();
+                parcel.readMap(map, MessageParcelBenchmarkTest.class.getClassLoader());
+                BenchmarkHarness.consume(map);
+                parcel.recycle();
+            }
+        });
+
+        int compactBytes = size(message, null);
+        int legacyBytes = size(null, data);
+        assertTrue("compact parcel should be smaller, compact=" + compactBytes + "B legacy=" + legacyBytes + "B",
+                compactBytes < legacyBytes);
+    }
+
+    private static int size(CountlyPushPlugin.Message message, Map<String, String> data) {
+        Parcel parcel = Parcel.obtain();
+        if (message != null) {
+            message.writeToParcel(parcel, 0);
+        } else {
+            parcel.writeMap(data);
+        }
+        int size = parcel.dataSize();
+        parcel.recycle();
+        return size;
+    }
+
+    private static Map<String, String> payload(int customKeys) {
+        Map<String, String> data = new HashMap<>();
+        data.put(CountlyPushPlugin.KEY_ID, "5f1a2b3c4d5e6f7081920a1b" + customKeys);
+        data.put(CountlyPushPlugin.KEY_TITLE, "Weekend sale");
+        data.put(CountlyPushPlugin.KEY_MESSAGE, "Everything in the shop is 50% off until Sunday, don't miss it");
+        data.put(CountlyPushPlugin.KEY_SOUND, "default");
+        data.put(CountlyPushPlugin.KEY_LINK, "https://count.ly/sale");
+        data.put(CountlyPushPlugin.KEY_BUTTONS, "[{\"t\":\"Open\",\"l\":\"https://count.ly/a\"},{\"t\":\"Later\",\"l\":\"https://count.ly/b\"}]");
+        for (int i = 0; i < customKeys; i++) {
+            data.put("custom_" + i, "0123456789abcdef0123456789abcdef");
+        }
+        return data;
+    }
+}
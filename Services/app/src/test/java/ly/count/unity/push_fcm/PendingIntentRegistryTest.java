@@ -0,0 +1,205 @@
+package ly.count.unity.push_fcm;
+
+import android.content.SharedPreferences;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PendingIntentRegistryTest {
+    @Test
+    public void requestCode_stablePerMessage() {
+        PendingIntentRegistry registry = new PendingIntentRegistry(null, 16);
+        int content = registry.requestCode("a", PendingIntentRegistry.SLOT_CONTENT, 1000);
+        assertEquals(content, registry.requestCode("a", PendingIntentRegistry.SLOT_CONTENT, 2000));
+        assertEquals(content + 1, registry.requestCode("a", 1, 3000));
+        assertEquals(content + PendingIntentRegistry.SLOT_DELETE, registry.requestCode("a", PendingIntentRegistry.SLOT_DELETE, 4000));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void requestCode_neverCollides() {
+        // Ids with equal String hashes collided with hash based request codes
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+
+        PendingIntentRegistry registry = new PendingIntentRegistry(null, 64);
+        Set<Integer> codes = new HashSet<>();
+        for (String id : new String[]{"Aa", "BB", "a", "b", "c"}) {
+            for (int slot = 0; slot < PendingIntentRegistry.SLOTS; slot++) {
+                int code = registry.requestCode(id, slot, 1000);
+                assertTrue("summary code taken", code >= PendingIntentRegistry.SLOTS);
+                assertTrue("duplicate code " + code, codes.add(code));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requestCode_rejectsSlotOutOfBlock() {
+        new PendingIntentRegistry(null, 16).requestCode("a", PendingIntentRegistry.SLOTS, 1000);
+    }
+
+    @Test
+    public void release_freesBlock() {
+        PendingIntentRegistry registry = new PendingIntentRegistry(null, 16);
+        int first = registry.requestCode("a", 0, 1000);
+        registry.release("a");
+        registry.release("missing");
+        assertFalse(registry.isAllocated("a"));
+        assertEquals(0, registry.size());
+        assertTrue(first != registry.requestCode("a", 0, 2000));
+    }
+
+    @Test
+    public void allocate_forgetsLeastRecentlyUsedBeyondCapacity() {
+        PendingIntentRegistry registry = new PendingIntentRegistry(null, 3);
+        registry.requestCode("a", 0, 1000);
+        registry.requestCode("b", 0, 2000);
+        registry.requestCode("c", 0, 3000);
+        // Posted again, so b is now the one used least recently
+        registry.requestCode("a", 1, 3500);
+        registry.requestCode("d", 0, 4000);
+        assertEquals(3, registry.size());
+        assertFalse(registry.isAllocated("b"));
+        assertTrue(registry.isAllocated("a"));
+        assertTrue(registry.isAllocated("d"));
+    }
+
+    @Test
+    public void load_forgetsOldestAllocationFirst() {
+        MapPreferences preferences = new MapPreferences();
+        preferences.values.put("m.b", 2 * PendingIntentRegistry.SLOTS + ",2000");
+        preferences.values.put("m.a", PendingIntentRegistry.SLOTS + ",1000");
+
+        PendingIntentRegistry registry = new PendingIntentRegistry(preferences, 2);
+        registry.requestCode("c", 0, 3000);
+        assertFalse(registry.isAllocated("a"));
+        assertTrue(registry.isAllocated("b"));
+    }
+
+    @Test
+    public void firstPostedAt_keptWhenPostedAgain() {
+        PendingIntentRegistry registry = new PendingIntentRegistry(null, 16);
+        assertEquals(1000, registry.firstPostedAt("a", 1000));
+        assertEquals(1000, registry.firstPostedAt("a", 5000));
+        registry.release("a");
+        assertEquals(6000, registry.firstPostedAt("a", 6000));
+    }
+
+    @Test
+    public void allocate_wrapsAroundSkippingLiveBlocks() {
+        MapPreferences preferences = new MapPreferences();
+        preferences.values.put("next", Integer.MAX_VALUE - PendingIntentRegistry.SLOTS);
+        preferences.values.put("m.live", PendingIntentRegistry.SLOTS + ",1000");
+
+        PendingIntentRegistry registry = new PendingIntentRegistry(preferences, 16);
+        assertEquals(Integer.MAX_VALUE - PendingIntentRegistry.SLOTS, registry.requestCode("last", 0, 2000));
+        assertEquals(2 * PendingIntentRegistry.SLOTS, registry.requestCode("wrapped", 0, 3000));
+    }
+
+    @Test
+    public void persistence_survivesReopen() {
+        MapPreferences preferences = new MapPreferences();
+        PendingIntentRegistry registry = new PendingIntentRegistry(preferences, 16);
+        int a = registry.requestCode("a", 0, 1000);
+        int b = registry.requestCode("b", 0, 2000);
+        registry.requestCode("c", 0, 3000);
+        registry.release("c");
+
+        preferences.values.put("m.broken", "nonsense");
+        PendingIntentRegistry reopened = new PendingIntentRegistry(preferences, 16);
+        assertEquals(2, reopened.size());
+        assertEquals(a, reopened.requestCode("a", 0, 4000));
+        assertEquals(b, reopened.requestCode("b", 0, 4000));
+        int d = reopened.requestCode("d", 0, 5000);
+        assertTrue(d != a && d != b);
+    }
+
+    private static class MapPreferences implements SharedPreferences {
+        final Map<String, Object> values = new HashMap<>();
+
+        @Override
+        public String getString(String k, String d) {
+            return values.containsKey(k) ? (String) values.get(k) : d;
+        }
+
+        @Override
+        public long getLong(String k, long d) {
+            return values.containsKey(k) ? (Long) values.get(k) : d;
+        }
+
+        @Override
+        public int getInt(String k, int d) {
+            return values.containsKey(k) ? (Integer) values.get(k) : d;
+        }
+
+        @Override
+        public boolean getBoolean(String k, boolean d) {
+            return values.containsKey(k) ? (Boolean) values.get(k) : d;
+        }
+
+        @Override
+        public boolean contains(String k) {
+            return values.containsKey(k);
+        }
+
+        @Override
+        public Map<String, ?> getAll() {
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public Editor edit() {
+            return new Editor() {
+                @Override
+                public Editor putString(String k, String v) {
+                    values.put(k, v);
+                    return this;
+                }
+
+                @Override
+                public Editor putLong(String k, long v) {
+                    values.put(k, v);
+                    return this;
+                }
+
+                @Override
+                public Editor putInt(String k, int v) {
+                    values.put(k, v);
+                    return this;
+                }
+
+                @Override
+                public Editor putBoolean(String k, boolean v) {
+                    values.put(k, v);
+                    return this;
+                }
+
+                @Override
+                public Editor remove(String k) {
+                    values.remove(k);
+                    return this;
+                }
+
+                @Override
+                public Editor clear() {
+                    values.clear();
+                    return this;
+                }
+
+                @Override
+                public boolean commit() {
+                    return true;
+                }
+
+                @Override
+                public void apply() {
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package ly.count.unity.push_fcm;
+
+import android.app.Notification;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RemoteNotificationsServiceTest {
+    private static final long WINDOW = 60 * 1000;
+    private static final long NOW = 1700000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void resetBulkDelay() {
+        CountlyPushPlugin.setBulkDelay(PostScheduler.BULK_DELAY_MS);
+    }
+
+    @Test
+    public void accept_keepsRedeliveryUntilPosted() {
+        DedupIndex dedup = new DedupIndex(null, 16, WINDOW);
+        Map<String, String> data = data("a");
+
+        // First delivery lost before posting, e.g. to process death: FCM's redelivery still gets through
+        assertTrue(RemoteNotificationsService.accept(data, dedup, NOW));
+        assertTrue(RemoteNotificationsService.accept(data, dedup, NOW + 1000));
+
+        // What PostScheduler does once the notification is up
+        dedup.markSeen("a", NOW + 2000);
+        long dropped = PushMetrics.duplicatesDropped.get();
+        assertFalse(RemoteNotificationsService.accept(data, dedup, NOW + 3000));
+        assertEquals(dropped + 1, PushMetrics.duplicatesDropped.get());
+        assertTrue(RemoteNotificationsService.accept(data("b"), dedup, NOW + 3000));
+    }
+
+    @Test
+    public void accept_dropsExpiredWithoutTouchingIndex() {
+        DedupIndex dedup = new DedupIndex(null, 16, WINDOW);
+        Map<String, String> data = data("a");
+        data.put(CountlyPushPlugin.KEY_EXPIRES, String.valueOf(NOW - 1));
+
+        long expired = PushMetrics.messagesExpired.get();
+        assertFalse(RemoteNotificationsService.accept(data, dedup, NOW));
+        assertEquals(expired + 1, PushMetrics.messagesExpired.get());
+        assertEquals(0, dedup.size());
+    }
+
+    @Test
+    public void accept_passesDataWithoutId() {
+        DedupIndex dedup = new DedupIndex(null, 16, WINDOW);
+        Map<String, String> data = new HashMap<>();
+        data.put("custom", "1");
+        assertTrue(RemoteNotificationsService.accept(data, dedup, NOW));
+        assertTrue(RemoteNotificationsService.accept(data, dedup, NOW));
+    }
+
+    @Test
+    public void redelivery_collapsedWhileHeldThenDropped() throws Exception {
+        CountlyPushPlugin.setBulkDelay(300);
+        DedupIndex dedup = new DedupIndex(null, 16, WINDOW);
+        HeldPushes held = new HeldPushes(folder.getRoot());
+        RecordingTarget target = new RecordingTarget(1);
+        PostScheduler scheduler = new PostScheduler(target, dedup, held);
+        Map<String, String> data = data("a");
+        data.put(CountlyPushPlugin.KEY_PRIORITY, PushChannel.BULK.value);
+
+        long collapsed = PushMetrics.notificationsCollapsed.get();
+        for (int i = 0; i < 2; i++) {
+            assertTrue(RemoteNotificationsService.accept(data, dedup, System.currentTimeMillis()));
+            held.hold("a", data);
+            // Only the first delivery is forwarded to Unity
+            assertEquals(i == 0, scheduler.enqueue(CountlyPushPlugin.decodeMessage(data), new Notification.Builder(null), System.nanoTime()));
+        }
+        assertEquals(collapsed + 1, PushMetrics.notificationsCollapsed.get());
+
+        assertTrue(target.posted.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, target.ids.size());
+        assertFalse(RemoteNotificationsService.accept(data, dedup, System.currentTimeMillis()));
+        assertTrue(held.restore(System.currentTimeMillis()).isEmpty());
+    }
+
+    @Test
+    public void redelivery_droppedWhenPostedWhileInFlight() throws Exception {
+        DedupIndex dedup = new DedupIndex(null, 16, WINDOW);
+        RecordingTarget target = new RecordingTarget(1);
+        PostScheduler scheduler = new PostScheduler(target, dedup, new HeldPushes(folder.getRoot()));
+        Map<String, String> data = data("a");
+
+        // Both pass the check on receipt before the first one is posted
+        assertTrue(RemoteNotificationsService.accept(data, dedup, System.currentTimeMillis()));
+        assertTrue(RemoteNotificationsService.accept(data, dedup, System.currentTimeMillis()));
+        assertTrue(scheduler.enqueue(CountlyPushPlugin.decodeMessage(data), new Notification.Builder(null), System.nanoTime()));
+        assertTrue(target.posted.await(5, TimeUnit.SECONDS));
+        // Marked right after posting
+        for (int i = 0; i < 50 && !dedup.isSeen("a", System.currentTimeMillis()); i++) {
+            Thread.sleep(10);
+        }
+
+        assertFalse(scheduler.enqueue(CountlyPushPlugin.decodeMessage(data), new Notification.Builder(null), System.nanoTime()));
+        Thread.sleep(100);
+        assertEquals(1, target.ids.size());
+        assertEquals(0, scheduler.getQueueDepth());
+    }
+
+    @Test
+    public void bulkDelay_zeroPostsRightAway() throws Exception {
+        CountlyPushPlugin.setBulkDelay(0);
+        RecordingTarget target = new RecordingTarget(1);
+        PostScheduler scheduler = new PostScheduler(target, new DedupIndex(null, 16, WINDOW), new HeldPushes(folder.getRoot()));
+        Map<String, String> data = data("a");
+        data.put(CountlyPushPlugin.KEY_PRIORITY, PushChannel.BULK.value);
+
+        scheduler.enqueue(CountlyPushPlugin.decodeMessage(data), new Notification.Builder(null), System.nanoTime());
+        // Well under the default 3 s hold
+        assertTrue(target.posted.await(1, TimeUnit.SECONDS));
+    }
+
+    static Map<String, String> data(String id) {
+        Map<String, String> data = new HashMap<>();
+        data.put(CountlyPushPlugin.KEY_ID, id);
+        data.put(CountlyPushPlugin.KEY_TITLE, "Title " + id);
+        data.put(CountlyPushPlugin.KEY_MESSAGE, "Message " + id);
+        return data;
+    }
+
+    private static class RecordingTarget implements PostScheduler.Target {
+        final List<String> ids = new ArrayList<>();
+        final CountDownLatch posted;
+
+        RecordingTarget(int posts) {
+            posted = new CountDownLatch(posts);
+        }
+
+        @Override
+        public void group(Notification.Builder builder) {
+        }
+
+        @Override
+        public synchronized void post(CountlyPushPlugin.Message message, Notification notification) {
+            ids.add(message.getId());
+            posted.countDown();
+        }
+
+        @Override
+        public void postSummary(Collection<CharSequence> lines, int count) {
+        }
+    }
+}
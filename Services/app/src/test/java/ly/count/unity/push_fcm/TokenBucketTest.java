@@ -0,0 +1,58 @@
+package ly.count.unity.push_fcm;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void tryAcquire_allowsBurstUpToCapacity() {
+        TokenBucket bucket = new TokenBucket(5, 5, 0);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire(0));
+        }
+        long wait = bucket.tryAcquire(0);
+        assertTrue(wait > 0);
+        assertTrue(wait <= SECOND / 5);
+    }
+
+    @Test
+    public void tryAcquire_refillsAtRate() {
+        TokenBucket bucket = new TokenBucket(5, 5, 0);
+        for (int i = 0; i < 5; i++) {
+            bucket.tryAcquire(0);
+        }
+        long wait = bucket.tryAcquire(0);
+        assertEquals(0, bucket.tryAcquire(wait));
+        assertTrue(bucket.tryAcquire(wait) > 0);
+    }
+
+    @Test
+    public void tryAcquire_neverExceedsCapacityAfterIdle() {
+        TokenBucket bucket = new TokenBucket(3, 5, 0);
+        long now = 3600 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.tryAcquire(now));
+        }
+        assertTrue(bucket.tryAcquire(now) > 0);
+    }
+
+    @Test
+    public void tryAcquire_sustainedRate() {
+        TokenBucket bucket = new TokenBucket(5, 5, 0);
+        long now = 0;
+        int acquired = 0;
+        while (now < 10 * SECOND) {
+            long wait = bucket.tryAcquire(now);
+            if (wait == 0) {
+                acquired++;
+            } else {
+                now += wait;
+            }
+        }
+        // initial burst plus 5 per second
+        assertTrue("acquired " + acquired, acquired >= 54 && acquired <= 56);
+    }
+}